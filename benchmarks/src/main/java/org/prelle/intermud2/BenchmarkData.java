@@ -0,0 +1,106 @@
+package org.prelle.intermud2;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.prelle.intermud2.Intermud2Contact.ContactState;
+import org.prelle.intermud2.Intermud2Contact.Service;
+
+/**
+ * Realistic payloads and registries shared by the benchmarks
+ */
+class BenchmarkData {
+
+	final static String PING_A = "@@@ping_a||NAME:Universes||HOST:tesseract||HOSTADDRESS:108.252.255.105"
+			+ "||PORT:3333||PORTUDP:3341||MUDLIB:UniLib||VERSION:1.0a||DRIVER:fluffos v2019.20210429"
+			+ "||USERS:12||LOCATION:USA||ENCODING:UTF-8@@@";
+
+	final static String RWHO = "%^BOLD%^%^B_CYAN%^Universes%^RESET%^ - 12 players\n"
+			+ "%^RED%^[Admin]%^RESET%^ Taranion      %^B_GREEN%^idle%^RESET%^ 3m\n"
+			+ "%^GREEN%^[Mortal]%^RESET%^ Lerida        %^B_RED%^fighting%^RESET%^\n"
+			+ "%^ORANGE%^[Mortal]%^RESET%^ Kosh          %^UNDERLINE%^afk%^RESET%^\n"
+			+ "%^MAGENTA%^[Builder]%^RESET%^ Ryo        %^FLASH%^new%^RESET%^\n"
+			+ "%^BLUE%^[Mortal]%^RESET%^ Vandar        %^REVERSE%^pk%^RESET%^ 1h\n";
+
+	final static String SUB_ENTRY = "|NAME:MYSTICISM-MUD|HOST:VM-4-16-ubuntu|HOSTADDRESS:124.223.67.13|PORT:2023|PORTUDP:2027|MUDLIB:Mysticism Lib|DRIVER:fluffos|VERSION:2.0";
+
+	//-------------------------------------------------------------------
+	/**
+	 * A mudlist_a answer with the given number of entries
+	 */
+	static String mudlistAnswer(int entries) {
+		StringBuilder buf = new StringBuilder("@@@mudlist_a");
+		for (int i=0; i<entries; i++) {
+			buf.append("||").append(i).append(":|NAME:Mud ").append(i)
+				.append("|HOST:mud").append(i).append(".example.org")
+				.append("|HOSTADDRESS:10.").append((i>>8)&255).append('.').append(i&255).append(".1")
+				.append("|PORT:4000|PORTUDP:4004|MUDLIB:Some Mudlib");
+		}
+		return buf.append("@@@").toString();
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * A ping_a answer from one of the Taiwanese MUDs in a double byte encoding
+	 */
+	static byte[] pingAnswer(String charset) {
+		String text = "@@@ping_a||NAME:時空幻境||HOST:dreamland||HOSTADDRESS:210.59.236.38||PORT:5500"
+				+ "||PORTUDP:5505||MUDLIB:Eastern Stories||VERSION:2.0||ENCODING:"+charset
+				+ "||LOCATION:台灣@@@";
+		return text.getBytes(Charset.forName(charset));
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * A mudlist_a answer with Chinese names in a double byte encoding.
+	 * The frame level ENCODING makes the parser decode it with charset.
+	 */
+	static byte[] mudlistAnswer(String charset, int entries) {
+		StringBuilder buf = new StringBuilder("@@@mudlist_a||ENCODING:").append(charset);
+		for (int i=0; i<entries; i++) {
+			buf.append("||").append(i).append(":|NAME:東方故事").append(i)
+				.append("|HOST:mud").append(i).append(".tw")
+				.append("|HOSTADDRESS:1.34.").append(i&255).append(".150")
+				.append("|PORT:6666|PORTUDP:6670|MUDLIB:金庸群俠傳|ENCODING:").append(charset);
+		}
+		return buf.append("@@@").toString().getBytes(Charset.forName(charset));
+	}
+
+	//-------------------------------------------------------------------
+	static byte[] bytes(String text) {
+		return text.getBytes(StandardCharsets.UTF_8);
+	}
+
+	//-------------------------------------------------------------------
+	static List<Intermud2Contact> contacts(int count) {
+		List<Intermud2Contact> ret = new ArrayList<>(count);
+		try {
+			for (int i=0; i<count; i++) {
+				InetAddress addr = InetAddress.getByAddress(new byte[] {10, (byte)(i>>16), (byte)(i>>8), (byte)i});
+				Intermud2Contact contact = new Intermud2Contact(addr, 4004);
+				contact.setName("Mud "+i);
+				contact.setHost("mud"+i+".example.org");
+				contact.setPort(4000);
+				contact.setMudLib("Some Mudlib");
+				contact.setState(ContactState.ONLINE);
+				contact.getServices().add(Service.PING);
+				ret.add(contact);
+			}
+		} catch (UnknownHostException e) {
+			throw new IllegalStateException(e);
+		}
+		return ret;
+	}
+
+	//-------------------------------------------------------------------
+	static ContactRegistry registry(int count) {
+		ContactRegistry registry = new ContactRegistry();
+		contacts(count).forEach(registry::add);
+		return registry;
+	}
+
+}
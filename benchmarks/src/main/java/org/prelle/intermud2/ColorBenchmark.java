@@ -0,0 +1,53 @@
+package org.prelle.intermud2;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.prelle.intermud2.PinkfishColor.Target;
+
+/**
+ * Translation of Pinkfish colour codes in rwho output
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ColorBenchmark {
+
+	@Param({"ANSI16", "ANSI256", "HTML", "PLAIN"})
+	public Target target;
+
+	private String rwho = BenchmarkData.RWHO;
+	private StringBuilder buffer = new StringBuilder(1024);
+
+	//-------------------------------------------------------------------
+	/**
+	 * Repeated texts are answered from the cache
+	 */
+	@Benchmark
+	public String decodeToANSI() {
+		return PinkfishColor.decodetoANSI(rwho);
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Uncached translation into a reused buffer
+	 */
+	@Benchmark
+	public StringBuilder translate() {
+		buffer.setLength(0);
+		return PinkfishColor.translate(rwho, target, buffer);
+	}
+
+}
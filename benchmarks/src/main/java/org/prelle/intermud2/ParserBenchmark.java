@@ -0,0 +1,84 @@
+package org.prelle.intermud2;
+
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.prelle.intermud2.Intermud2Demon.I2Message;
+
+/**
+ * Parsing of incoming packets
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParserBenchmark {
+
+	private byte[] pingAnswer;
+	private byte[] mudlistAnswer;
+	private byte[] big5Ping;
+	private byte[] gbkPing;
+	private byte[] big5Mudlist;
+	private InetAddress sender;
+
+	//-------------------------------------------------------------------
+	@Setup
+	public void setup() {
+		pingAnswer    = BenchmarkData.bytes(BenchmarkData.PING_A);
+		mudlistAnswer = BenchmarkData.bytes(BenchmarkData.mudlistAnswer(30));
+		big5Ping      = BenchmarkData.pingAnswer("big5");
+		gbkPing       = BenchmarkData.pingAnswer("gbk");
+		big5Mudlist   = BenchmarkData.mudlistAnswer("big5", 20);
+		sender        = InetAddress.getLoopbackAddress();
+	}
+
+	//-------------------------------------------------------------------
+	@Benchmark
+	public I2Message pingAnswer() {
+		return Intermud2Demon.parseMessage(pingAnswer, sender, 4004);
+	}
+
+	//-------------------------------------------------------------------
+	@Benchmark
+	public I2Message mudlistAnswer() {
+		return Intermud2Demon.parseMessage(mudlistAnswer, sender, 4004);
+	}
+
+	//-------------------------------------------------------------------
+	@Benchmark
+	public I2Message pingAnswerBig5() {
+		return Intermud2Demon.parseMessage(big5Ping, sender, 4004);
+	}
+
+	//-------------------------------------------------------------------
+	@Benchmark
+	public I2Message pingAnswerGBK() {
+		return Intermud2Demon.parseMessage(gbkPing, sender, 4004);
+	}
+
+	//-------------------------------------------------------------------
+	@Benchmark
+	public I2Message mudlistAnswerBig5() {
+		return Intermud2Demon.parseMessage(big5Mudlist, sender, 4004);
+	}
+
+	//-------------------------------------------------------------------
+	@Benchmark
+	public Map<String,String> subParameter() {
+		return Intermud2Demon.asSubParameter(BenchmarkData.SUB_ENTRY);
+	}
+
+}
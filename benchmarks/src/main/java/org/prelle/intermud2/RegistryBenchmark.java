@@ -0,0 +1,74 @@
+package org.prelle.intermud2;
+
+import java.net.InetAddress;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lookups in the contact registry and building mudlist_a answers
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RegistryBenchmark {
+
+	@Param({"100", "1000", "10000"})
+	public int contacts;
+
+	private ContactRegistry registry;
+	private String[] names;
+	private InetAddress[] addresses;
+
+	//-------------------------------------------------------------------
+	@Setup
+	public void setup() {
+		List<Intermud2Contact> all = BenchmarkData.contacts(contacts);
+		registry  = new ContactRegistry();
+		names     = new String[all.size()];
+		addresses = new InetAddress[all.size()];
+		for (int i=0; i<all.size(); i++) {
+			registry.add(all.get(i));
+			// Names are looked up case insensitive
+			names[i]     = all.get(i).getName().toUpperCase();
+			addresses[i] = all.get(i).getIpAddress();
+		}
+	}
+
+	//-------------------------------------------------------------------
+	@Benchmark
+	public Intermud2Contact getByName() {
+		return registry.getByName(names[ThreadLocalRandom.current().nextInt(names.length)]);
+	}
+
+	//-------------------------------------------------------------------
+	@Benchmark
+	public Intermud2Contact getByIPOnly() {
+		return registry.getByIPOnly(addresses[ThreadLocalRandom.current().nextInt(addresses.length)]);
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Encode the complete answer to a mudlist_q
+	 */
+	@Benchmark
+	public List<byte[]> buildMudlistAnswer() {
+		return MudlistCache.build(registry.getAll(), 1024);
+	}
+
+}
@@ -0,0 +1,266 @@
+package org.prelle.intermud2;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.prelle.intermud2.Intermud2Contact.ContactState;
+
+/**
+ * All known Intermud2 contacts, indexed by IP address and UDP port, by
+ * (case insensitive) name and by IP address only.
+ * Lookups never block. Modifications that affect the indexes are
+ * serialized, so that the indexes are always consistent with each other.
+ */
+public class ContactRegistry {
+
+	/**
+	 * Informed after contacts have been added, modified or removed
+	 */
+	public interface RegistryListener {
+		public void contactAdded(Intermud2Contact contact);
+		public default void contactChanged(Intermud2Contact contact) {}
+		public void contactRemoved(Intermud2Contact contact);
+	}
+
+	private final Map<InetSocketAddress,Intermud2Contact> byAddress = new ConcurrentHashMap<>();
+	private final Map<String,Intermud2Contact> byName = new ConcurrentHashMap<>();
+	private final Map<InetAddress,Set<Intermud2Contact>> byIP = new ConcurrentHashMap<>();
+	private final Object writeLock = new Object();
+	private final AtomicLong version = new AtomicLong();
+	private final List<RegistryListener> listeners = new CopyOnWriteArrayList<>();
+
+	//-------------------------------------------------------------------
+	public void addListener(RegistryListener listener) {
+		listeners.add(listener);
+	}
+
+	//-------------------------------------------------------------------
+	public void removeListener(RegistryListener listener) {
+		listeners.remove(listener);
+	}
+
+	//-------------------------------------------------------------------
+	private static InetSocketAddress key(InetAddress addr, int port) {
+		return new InetSocketAddress(addr, port);
+	}
+
+	//-------------------------------------------------------------------
+	private static String nameKey(String name) {
+		return name.toLowerCase(Locale.ROOT);
+	}
+
+	//-------------------------------------------------------------------
+	public Intermud2Contact get(InetAddress addr, int port) {
+		return byAddress.get(key(addr, port));
+	}
+
+	//-------------------------------------------------------------------
+	public Intermud2Contact getByName(String name) {
+		if (name==null) return null;
+		return byName.get(nameKey(name));
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Returns any contact using the given IP address
+	 */
+	public Intermud2Contact getByIPOnly(InetAddress addr) {
+		Set<Intermud2Contact> set = byIP.get(addr);
+		if (set==null) return null;
+		Iterator<Intermud2Contact> it = set.iterator();
+		return it.hasNext()?it.next():null;
+	}
+
+	//-------------------------------------------------------------------
+	public Collection<Intermud2Contact> getAll() {
+		return Collections.unmodifiableCollection(byAddress.values());
+	}
+
+	//-------------------------------------------------------------------
+	public int size() {
+		return byAddress.size();
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @return A number that changes whenever a contact is added, removed,
+	 *    changes its state or its name, host, address or ports
+	 */
+	public long getVersion() {
+		return version.get();
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Change the state of a contact
+	 * @return TRUE if the state has been changed
+	 */
+	public boolean setState(Intermud2Contact contact, ContactState state) {
+		if (contact.getState()==state)
+			return false;
+		contact.setState(state);
+		version.incrementAndGet();
+		touch(contact);
+		return true;
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Inform listeners that a contact has been modified without using
+	 * update() or setState()
+	 */
+	public void touch(Intermud2Contact contact) {
+		if (byAddress.get(key(contact.getIpAddress(), contact.getIm2Port()))!=contact)
+			return;
+		listeners.forEach(l -> l.contactChanged(contact));
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Add a contact, if there isn't already one with the same address
+	 * and port.
+	 * @return The contact now registered for address and port
+	 */
+	public Intermud2Contact add(Intermud2Contact contact) {
+		synchronized (writeLock) {
+			Intermud2Contact existing = byAddress.putIfAbsent(key(contact.getIpAddress(), contact.getIm2Port()), contact);
+			if (existing!=null)
+				return existing;
+			index(contact);
+			version.incrementAndGet();
+		}
+		listeners.forEach(l -> l.contactAdded(contact));
+		return contact;
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Return the contact with the given address and port - or register
+	 * a new one.
+	 */
+	public Intermud2Contact getOrCreate(InetAddress addr, int port) {
+		Intermud2Contact contact = get(addr, port);
+		if (contact!=null)
+			return contact;
+		return add(new Intermud2Contact(addr, port));
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Modify a contact. Changes of name, address or port are reflected
+	 * in the indexes. If the contact isn't registered yet, it will be
+	 * after the modification. Readers find the contact under its old or
+	 * new keys at any time.
+	 */
+	public void update(Intermud2Contact contact, Consumer<Intermud2Contact> change) {
+		boolean added = false, removed = false;
+		synchronized (writeLock) {
+			String name = contact.getName();
+			String host = contact.getHost();
+			InetAddress addr = contact.getIpAddress();
+			int im2Port = contact.getIm2Port();
+			int port    = contact.getPort();
+			InetSocketAddress oldKey = key(addr, im2Port);
+			boolean registered = byAddress.get(oldKey)==contact;
+			change.accept(contact);
+			InetSocketAddress newKey = key(contact.getIpAddress(), contact.getIm2Port());
+			if (!registered) {
+				added = byAddress.putIfAbsent(newKey, contact)==null;
+				if (added)
+					index(contact);
+			} else if (!oldKey.equals(newKey)) {
+				// New key first, so the contact is always found
+				removed = byAddress.putIfAbsent(newKey, contact)!=null;
+				byAddress.remove(oldKey, contact);
+				if (removed)
+					unindex(contact, name, addr);
+				else
+					reindex(contact, name, addr);
+			} else if (!Objects.equals(name, contact.getName())) {
+				reindex(contact, name, addr);
+			}
+			if (!registered
+					|| !Objects.equals(name, contact.getName())
+					|| !Objects.equals(host, contact.getHost())
+					|| !addr.equals(contact.getIpAddress())
+					|| im2Port!=contact.getIm2Port()
+					|| port!=contact.getPort()) {
+				version.incrementAndGet();
+			}
+		}
+		if (added)
+			listeners.forEach(l -> l.contactAdded(contact));
+		else if (removed)
+			listeners.forEach(l -> l.contactRemoved(contact));
+		else
+			touch(contact);
+	}
+
+	//-------------------------------------------------------------------
+	public boolean remove(Intermud2Contact contact) {
+		boolean removed;
+		synchronized (writeLock) {
+			removed = byAddress.remove(key(contact.getIpAddress(), contact.getIm2Port()), contact);
+			if (removed) {
+				unindex(contact);
+				version.incrementAndGet();
+			}
+		}
+		if (removed)
+			listeners.forEach(l -> l.contactRemoved(contact));
+		return removed;
+	}
+
+	//-------------------------------------------------------------------
+	private void index(Intermud2Contact contact) {
+		if (contact.getName()!=null)
+			byName.put(nameKey(contact.getName()), contact);
+		byIP.computeIfAbsent(contact.getIpAddress(), k -> ConcurrentHashMap.newKeySet()).add(contact);
+	}
+
+	//-------------------------------------------------------------------
+	private void unindex(Intermud2Contact contact) {
+		unindex(contact, contact.getName(), contact.getIpAddress());
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @param name Name the contact is indexed with
+	 * @param addr Address the contact is indexed with
+	 */
+	private void unindex(Intermud2Contact contact, String name, InetAddress addr) {
+		if (name!=null)
+			byName.remove(nameKey(name), contact);
+		byIP.computeIfPresent(addr, (k,set) -> {
+			set.remove(contact);
+			return set.isEmpty()?null:set;
+		});
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Index a contact with its current name and address, then remove the
+	 * entries for the old ones
+	 */
+	private void reindex(Intermud2Contact contact, String oldName, InetAddress oldAddr) {
+		index(contact);
+		String name = contact.getName();
+		if (oldName!=null && (name==null || !nameKey(oldName).equals(nameKey(name))))
+			byName.remove(nameKey(oldName), contact);
+		if (!oldAddr.equals(contact.getIpAddress()))
+			unindex(contact, null, oldAddr);
+	}
+
+}
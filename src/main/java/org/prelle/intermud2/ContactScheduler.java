@@ -0,0 +1,160 @@
+package org.prelle.intermud2;
+
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Runs periodic work per contact. Every contact has its own due time;
+ * the first probe is placed randomly within the interval and every later
+ * one is jittered, so probes are spread evenly instead of all contacts
+ * being probed at once. A failing task never stops the scheduler.
+ */
+class ContactScheduler implements ContactRegistry.RegistryListener {
+
+	private final static Logger logger = System.getLogger("intermud2");
+
+	private final ScheduledExecutorService executor;
+	private final Map<Intermud2Contact,ScheduledFuture<?>> tasks = new ConcurrentHashMap<>();
+	private final Consumer<Intermud2Contact> probe;
+	private final Function<Intermud2Contact,Duration> interval;
+	private final double jitter;
+
+	//-------------------------------------------------------------------
+	/**
+	 * @param probe    Work to do whenever a contact is due
+	 * @param interval Time between two probes of a contact
+	 * @param jitter   Fraction of the interval by which due times vary
+	 */
+	ContactScheduler(Consumer<Intermud2Contact> probe, Function<Intermud2Contact,Duration> interval, double jitter) {
+		this.probe    = probe;
+		this.interval = interval;
+		this.jitter   = jitter;
+		this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "Intermud IM2 Scheduler");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	//-------------------------------------------------------------------
+	void stop() {
+		executor.shutdownNow();
+		tasks.clear();
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Run a task at a fixed rate. Exceptions are logged and don't cancel
+	 * further executions.
+	 */
+	ScheduledFuture<?> scheduleAtFixedRate(String name, Runnable task, Duration initialDelay, Duration period) {
+		return executor.scheduleAtFixedRate(safe(name, task), initialDelay.toMillis(), period.toMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	//-------------------------------------------------------------------
+	private static Runnable safe(String name, Runnable task) {
+		return () -> {
+			try {
+				task.run();
+			} catch (Exception e) {
+				logger.log(Level.ERROR, "Error in scheduled task "+name, e);
+			}
+		};
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Start probing a contact. The first probe happens at a random time
+	 * within the contacts interval.
+	 */
+	void track(Intermud2Contact contact) {
+		if (executor.isShutdown())
+			return;
+		long period = interval.apply(contact).toMillis();
+		long first  = ThreadLocalRandom.current().nextLong(Math.max(1, period));
+		tasks.computeIfAbsent(contact, c -> scheduleProbe(c, first));
+	}
+
+	//-------------------------------------------------------------------
+	void untrack(Intermud2Contact contact) {
+		ScheduledFuture<?> future = tasks.remove(contact);
+		if (future!=null)
+			future.cancel(false);
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Replace the due time of a contact with one interval from now, e.g.
+	 * when a MUD came back and its backoff no longer applies.
+	 */
+	void reschedule(Intermud2Contact contact) {
+		if (executor.isShutdown())
+			return;
+		long delay = nextDelay(contact);
+		tasks.computeIfPresent(contact, (c,old) -> {
+			old.cancel(false);
+			return scheduleProbe(c, delay);
+		});
+	}
+
+	//-------------------------------------------------------------------
+	private ScheduledFuture<?> scheduleProbe(Intermud2Contact contact, long delayMillis) {
+		contact.setNextProbe(Instant.now().plusMillis(delayMillis));
+		return executor.schedule( () -> runProbe(contact), delayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	//-------------------------------------------------------------------
+	private void runProbe(Intermud2Contact contact) {
+		try {
+			probe.accept(contact);
+		} catch (Exception e) {
+			logger.log(Level.ERROR, "Error probing "+contact.getName(), e);
+		}
+		long delay = nextDelay(contact);
+		tasks.computeIfPresent(contact, (c,old) -> {
+			// Might have been rescheduled while probing
+			old.cancel(false);
+			return scheduleProbe(c, delay);
+		});
+	}
+
+	//-------------------------------------------------------------------
+	private long nextDelay(Intermud2Contact contact) {
+		long period = interval.apply(contact).toMillis();
+		long spread = (long)(period*jitter);
+		long next   = period;
+		if (spread>0)
+			next += ThreadLocalRandom.current().nextLong(-spread, spread+1);
+		return Math.max(1, next);
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @see org.prelle.intermud2.ContactRegistry.RegistryListener#contactAdded(org.prelle.intermud2.Intermud2Contact)
+	 */
+	@Override
+	public void contactAdded(Intermud2Contact contact) {
+		track(contact);
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @see org.prelle.intermud2.ContactRegistry.RegistryListener#contactRemoved(org.prelle.intermud2.Intermud2Contact)
+	 */
+	@Override
+	public void contactRemoved(Intermud2Contact contact) {
+		untrack(contact);
+	}
+
+}
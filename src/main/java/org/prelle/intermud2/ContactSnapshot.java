@@ -0,0 +1,178 @@
+package org.prelle.intermud2;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.prelle.intermud2.Intermud2Contact.ContactState;
+import org.prelle.intermud2.Intermud2Contact.Service;
+
+/**
+ * Binary snapshot of the contact registry. Addresses are stored as raw
+ * bytes, so no DNS is needed when reading. States and services are
+ * written as indexes into name tables in the header, so reordering or
+ * adding enum constants doesn't break older snapshots.
+ * <pre>
+ * int    magic "I2CS"
+ * short  format version
+ * byte   number of states,   followed by their names
+ * byte   number of services, followed by their names
+ * int    number of contacts, followed by the contacts
+ * </pre>
+ * Strings are written as a 2 byte length (-1 for NULL) and UTF-8 bytes.
+ */
+class ContactSnapshot {
+
+	final static int MAGIC = 0x49324353;
+	final static short VERSION = 1;
+
+	//-------------------------------------------------------------------
+	static ByteBuffer write(Collection<Intermud2Contact> contacts) {
+		ByteBuffer buf = ByteBuffer.allocate(64 + contacts.size()*256);
+		buf.putInt(MAGIC);
+		buf.putShort(VERSION);
+		buf.put((byte)ContactState.values().length);
+		for (ContactState state : ContactState.values())
+			buf = putString(buf, state.name());
+		buf.put((byte)Service.values().length);
+		for (Service service : Service.values())
+			buf = putString(buf, service.name());
+		buf.putInt(contacts.size());
+
+		for (Intermud2Contact contact : contacts) {
+			buf = ensure(buf, 64);
+			byte[] addr = contact.getIpAddress().getAddress();
+			buf.put((byte)addr.length);
+			buf.put(addr);
+			buf.putShort((short)contact.getIm2Port());
+			buf.putShort((short)contact.getPort());
+			buf.put((byte)contact.getState().ordinal());
+			long services = 0;
+			for (Service service : contact.getServices())
+				services |= 1L<<service.ordinal();
+			buf.putLong(services);
+			LocalDateTime last = contact.getLastContact();
+			buf.putLong(last.toEpochSecond(ZoneOffset.UTC));
+			buf.putInt(last.getNano());
+			buf = putString(buf, contact.getName());
+			buf = putString(buf, contact.getMudName());
+			buf = putString(buf, contact.getHost());
+			buf = putString(buf, contact.getLocation());
+			buf = putString(buf, contact.getEncoding());
+			buf = putString(buf, contact.getDriver());
+			buf = putString(buf, contact.getMudLib());
+			buf = putString(buf, contact.getVersion());
+			buf = putString(buf, contact.getMudGroup());
+		}
+		return buf.flip();
+	}
+
+	//-------------------------------------------------------------------
+	private static ByteBuffer ensure(ByteBuffer buf, int needed) {
+		if (buf.remaining()>=needed)
+			return buf;
+		ByteBuffer bigger = ByteBuffer.allocate(Math.max(buf.capacity()*2, buf.position()+needed));
+		return bigger.put(buf.flip());
+	}
+
+	//-------------------------------------------------------------------
+	private static ByteBuffer putString(ByteBuffer buf, String value) {
+		if (value==null) {
+			return ensure(buf, 2).putShort((short)-1);
+		}
+		byte[] data = value.getBytes(StandardCharsets.UTF_8);
+		int len = Math.min(data.length, Short.MAX_VALUE);
+		return ensure(buf, 2+len).putShort((short)len).put(data, 0, len);
+	}
+
+	//-------------------------------------------------------------------
+	private static String getString(ByteBuffer buf) {
+		int len = buf.getShort();
+		if (len<0)
+			return null;
+		byte[] data = new byte[len];
+		buf.get(data);
+		return new String(data, StandardCharsets.UTF_8);
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Map the snapshot file into memory and read it
+	 */
+	static List<Intermud2Contact> read(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return read(buf);
+		}
+	}
+
+	//-------------------------------------------------------------------
+	static List<Intermud2Contact> read(ByteBuffer buf) throws IOException {
+		try {
+			if (buf.getInt()!=MAGIC)
+				throw new IOException("Not a contact snapshot");
+			short version = buf.getShort();
+			if (version!=VERSION)
+				throw new IOException("Unsupported snapshot version "+version);
+
+			ContactState[] states = new ContactState[buf.get()];
+			for (int i=0; i<states.length; i++)
+				states[i] = valueOf(ContactState.class, getString(buf), ContactState.UNKNOWN);
+			Service[] services = new Service[buf.get()];
+			for (int i=0; i<services.length; i++)
+				services[i] = valueOf(Service.class, getString(buf), null);
+
+			int count = buf.getInt();
+			// Every contact needs at least 40 bytes - don't trust a corrupt count
+			List<Intermud2Contact> ret = new ArrayList<>(Math.min(count, buf.remaining()/40));
+			for (int i=0; i<count; i++) {
+				byte[] addr = new byte[buf.get()];
+				buf.get(addr);
+				Intermud2Contact contact = new Intermud2Contact(InetAddress.getByAddress(addr), Short.toUnsignedInt(buf.getShort()));
+				contact.setPort(Short.toUnsignedInt(buf.getShort()));
+				contact.setState(states[buf.get()]);
+				long serviceMask = buf.getLong();
+				for (int s=0; s<services.length; s++) {
+					if ((serviceMask & (1L<<s))!=0 && services[s]!=null)
+						contact.getServices().add(services[s]);
+				}
+				contact.setLastContact(LocalDateTime.ofEpochSecond(buf.getLong(), buf.getInt(), ZoneOffset.UTC));
+				contact.setName(getString(buf));
+				contact.setMudName(getString(buf));
+				contact.setHost(getString(buf));
+				contact.setLocation(getString(buf));
+				contact.setEncoding(getString(buf));
+				contact.setDriver(getString(buf));
+				contact.setMudLib(getString(buf));
+				contact.setVersion(getString(buf));
+				contact.setMudGroup(getString(buf));
+				ret.add(contact);
+			}
+			return ret;
+		} catch (BufferUnderflowException | UnknownHostException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+			throw new IOException("Truncated or corrupt contact snapshot", e);
+		}
+	}
+
+	//-------------------------------------------------------------------
+	private static <E extends Enum<E>> E valueOf(Class<E> type, String name, E fallback) {
+		try {
+			return Enum.valueOf(type, name);
+		} catch (IllegalArgumentException | NullPointerException e) {
+			return fallback;
+		}
+	}
+
+}
@@ -0,0 +1,422 @@
+package org.prelle.intermud2;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.prelle.intermud2.Intermud2Contact.ContactState;
+import org.prelle.intermud2.Intermud2Contact.Service;
+
+/**
+ * Persists the contact registry. Modified contacts are appended to a
+ * journal; once the journal grows too large, it is compacted into a
+ * binary snapshot (see {@link ContactSnapshot}) that is written to a
+ * temporary file and atomically renamed.
+ * Nothing is written if nothing changed. The human readable host list
+ * is derived from the registry and written the same way.
+ */
+class HostListStore implements ContactRegistry.RegistryListener {
+
+	private final static Logger logger = System.getLogger("intermud2");
+
+	final static String SNAPSHOT = "contacts.snapshot";
+	final static String JOURNAL  = "contacts.journal";
+
+	private final static String NULL = "\\N";
+
+	private final ContactRegistry registry;
+	private final Path snapshotFile;
+	private final Path journalFile;
+	private final Path exportFile;
+	private final int compactThreshold;
+	private final Set<Intermud2Contact> dirty = ConcurrentHashMap.newKeySet();
+	/** Keys of removed contacts, that are still in the journal or snapshot */
+	private final Set<String> removed = ConcurrentHashMap.newKeySet();
+	/** Key (address and port) under which a contact has been written */
+	private final Map<Intermud2Contact,String> persistedKeys = new ConcurrentHashMap<>();
+	private int journalRecords;
+	private volatile boolean exportDirty = true;
+
+	//-------------------------------------------------------------------
+	HostListStore(ContactRegistry registry, I2Config config) {
+		this.registry = registry;
+		this.exportFile = config.getExportTo();
+		this.compactThreshold = config.getJournalCompactThreshold();
+		if (config.getStateDir()!=null) {
+			snapshotFile = config.getStateDir().resolve(SNAPSHOT);
+			journalFile  = config.getStateDir().resolve(JOURNAL);
+		} else {
+			snapshotFile = null;
+			journalFile  = null;
+		}
+	}
+
+	//-------------------------------------------------------------------
+	void markDirty(Intermud2Contact contact) {
+		dirty.add(contact);
+		exportDirty = true;
+	}
+
+	//-------------------------------------------------------------------
+	boolean isDirty() {
+		return !dirty.isEmpty() || !removed.isEmpty();
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Append all modified contacts to the journal and compact it, if
+	 * it became too large. Also updates the human readable export.
+	 */
+	synchronized void flush() throws IOException {
+		if (journalFile!=null && isDirty()) {
+			List<String> records = new ArrayList<>();
+			List<String> removedKeys = new ArrayList<>();
+			Map<Intermud2Contact,String> oldKeys = new LinkedHashMap<>();
+			for (String key : removed) {
+				removed.remove(key);
+				removedKeys.add(key);
+				records.add("R\t"+key);
+			}
+			for (Intermud2Contact contact : dirty) {
+				dirty.remove(contact);
+				String key = key(contact);
+				String oldKey = persistedKeys.put(contact, key);
+				oldKeys.put(contact, oldKey);
+				if (oldKey!=null && !oldKey.equals(key)) {
+					// Address or port changed
+					records.add("R\t"+oldKey);
+				}
+				records.add(encode(contact));
+			}
+			try {
+				appendJournal(records);
+			} catch (IOException e) {
+				// Write them with the next flush
+				removed.addAll(removedKeys);
+				oldKeys.forEach( (contact, oldKey) -> {
+					if (oldKey!=null)
+						persistedKeys.put(contact, oldKey);
+					else
+						persistedKeys.remove(contact);
+					dirty.add(contact);
+				});
+				throw e;
+			}
+			if (journalRecords>=compactThreshold) {
+				compact();
+			}
+		} else if (journalFile==null) {
+			dirty.clear();
+			removed.clear();
+		}
+
+		if (exportFile!=null && exportDirty) {
+			exportDirty = false;
+			export();
+		}
+	}
+
+	//-------------------------------------------------------------------
+	private void appendJournal(List<String> records) throws IOException {
+		Files.createDirectories(journalFile.getParent());
+		try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+			Writer out = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8));
+			for (String record : records) {
+				out.write(record);
+				out.write('\n');
+			}
+			out.flush();
+			channel.force(false);
+		}
+		journalRecords += records.size();
+		logger.log(Level.DEBUG, "Appended {0} records to {1}", records.size(), journalFile);
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Write all contacts into a new snapshot and start an empty journal
+	 */
+	synchronized void compact() throws IOException {
+		if (snapshotFile==null) return;
+		Collection<Intermud2Contact> contacts = registry.getAll();
+		for (Intermud2Contact contact : contacts) {
+			persistedKeys.put(contact, key(contact));
+		}
+		writeAtomically(snapshotFile, ContactSnapshot.write(contacts));
+		Files.deleteIfExists(journalFile);
+		journalRecords = 0;
+		logger.log(Level.INFO, "Compacted {0} contacts into {1}", contacts.size(), snapshotFile);
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Write all pending changes and compact the journal, so the next
+	 * start only needs to read the snapshot
+	 */
+	synchronized void stop() throws IOException {
+		flush();
+		if (journalRecords>0)
+			compact();
+	}
+
+	//-------------------------------------------------------------------
+	private void export() throws IOException {
+		List<Intermud2Contact> toWrite = new ArrayList<>();
+		for (Intermud2Contact contact : registry.getAll()) {
+			if (contact.getState()!=ContactState.UNKNOWN && contact.getName()!=null)
+				toWrite.add(contact);
+		}
+		Collections.sort(toWrite);
+		StringBuilder lines = new StringBuilder(toWrite.size()*100);
+		for (Intermud2Contact mud : toWrite) {
+			lines.append(String.format("%20s \t|%15s \t|%d \t|%s|%s|%s | %s #%s\r\n",
+					mud.getName(),
+					mud.getIpAddress().getHostAddress(),
+					mud.getIm2Port(),
+					mud.getDriver(),
+					mud.getMudLib(),
+					mud.getVersion(),
+					mud.getState(),
+					mud.getServices()
+					));
+		}
+		writeAtomically(exportFile, StandardCharsets.UTF_8.encode(lines.toString()));
+		logger.log(Level.DEBUG, "Wrote {0} hosts to {1}", toWrite.size(), exportFile.toAbsolutePath());
+	}
+
+	//-------------------------------------------------------------------
+	private static void writeAtomically(Path file, ByteBuffer data) throws IOException {
+		Path dir = file.toAbsolutePath().getParent();
+		Files.createDirectories(dir);
+		Path temp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+				while (data.hasRemaining())
+					channel.write(data);
+				channel.force(true);
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Read the snapshot and replay the journal. The returned contacts
+	 * should be added to the registry before this store is registered as
+	 * a listener, so they aren't written again.
+	 * @return All persisted contacts
+	 */
+	synchronized Collection<Intermud2Contact> load() throws IOException {
+		Map<String,Intermud2Contact> ret = new LinkedHashMap<>();
+		if (snapshotFile==null)
+			return ret.values();
+		if (Files.exists(snapshotFile)) {
+			try {
+				for (Intermud2Contact contact : ContactSnapshot.read(snapshotFile))
+					ret.put(key(contact), contact);
+			} catch (IOException e) {
+				// Contacts will be re-discovered from the network
+				logger.log(Level.ERROR, "Ignore unreadable snapshot "+snapshotFile, e);
+			}
+		}
+		if (Files.exists(journalFile))
+			journalRecords = replay(journalFile, ret);
+		for (Intermud2Contact contact : ret.values())
+			persistedKeys.put(contact, key(contact));
+		logger.log(Level.INFO, "Loaded {0} contacts from {1}", ret.size(), snapshotFile.getParent());
+		return ret.values();
+	}
+
+	//-------------------------------------------------------------------
+	private static int replay(Path file, Map<String,Intermud2Contact> contacts) throws IOException {
+		int count = 0;
+		try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line=in.readLine())!=null) {
+				if (line.isEmpty()) continue;
+				count++;
+				try {
+					String[] fields = line.split("\t", -1);
+					String key = canonicalKey(fields[1])+"\t"+fields[2];
+					if ("R".equals(fields[0])) {
+						contacts.remove(key);
+					} else {
+						contacts.put(key, decode(fields));
+					}
+				} catch (Exception e) {
+					// A crash may have left an incomplete last line
+					logger.log(Level.WARNING, "Ignore invalid record in {0}: {1}", file, line);
+				}
+			}
+		}
+		return count;
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Journal records use textual addresses, which must match the keys
+	 * of contacts read from the binary snapshot.
+	 */
+	private static String canonicalKey(String address) {
+		InetAddress addr = I2Resolver.parseLiteral(address);
+		return (addr!=null)?addr.getHostAddress():address;
+	}
+
+	//-------------------------------------------------------------------
+	private static String key(Intermud2Contact contact) {
+		return contact.getIpAddress().getHostAddress()+"\t"+contact.getIm2Port();
+	}
+
+	//-------------------------------------------------------------------
+	static String encode(Intermud2Contact contact) {
+		StringBuilder buf = new StringBuilder(128);
+		buf.append('C');
+		field(buf, contact.getIpAddress().getHostAddress());
+		field(buf, String.valueOf(contact.getIm2Port()));
+		field(buf, String.valueOf(contact.getPort()));
+		field(buf, contact.getName());
+		field(buf, contact.getMudName());
+		field(buf, contact.getHost());
+		field(buf, contact.getLocation());
+		field(buf, contact.getEncoding());
+		field(buf, contact.getDriver());
+		field(buf, contact.getMudLib());
+		field(buf, contact.getVersion());
+		field(buf, contact.getMudGroup());
+		field(buf, contact.getState().name());
+		field(buf, (contact.getLastContact()!=null)?contact.getLastContact().toString():null);
+		StringBuilder services = new StringBuilder();
+		for (Service service : contact.getServices()) {
+			if (services.length()>0) services.append(',');
+			services.append(service.name());
+		}
+		field(buf, services.toString());
+		return buf.toString();
+	}
+
+	//-------------------------------------------------------------------
+	private static void field(StringBuilder buf, String value) {
+		buf.append('\t');
+		if (value==null) {
+			buf.append(NULL);
+			return;
+		}
+		for (int i=0; i<value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '\t' -> buf.append("\\t");
+			case '\n' -> buf.append("\\n");
+			case '\r' -> buf.append("\\r");
+			case '\\' -> buf.append("\\\\");
+			default   -> buf.append(c);
+			}
+		}
+	}
+
+	//-------------------------------------------------------------------
+	private static String unescape(String value) {
+		if (NULL.equals(value))
+			return null;
+		if (value.indexOf('\\')<0)
+			return value;
+		StringBuilder buf = new StringBuilder(value.length());
+		for (int i=0; i<value.length(); i++) {
+			char c = value.charAt(i);
+			if (c=='\\' && i+1<value.length()) {
+				c = value.charAt(++i);
+				switch (c) {
+				case 't' -> buf.append('\t');
+				case 'n' -> buf.append('\n');
+				case 'r' -> buf.append('\r');
+				default  -> buf.append(c);
+				}
+			} else {
+				buf.append(c);
+			}
+		}
+		return buf.toString();
+	}
+
+	//-------------------------------------------------------------------
+	static Intermud2Contact decode(String[] fields) {
+		InetAddress addr = I2Resolver.parseLiteral(fields[1]);
+		if (addr==null)
+			throw new IllegalArgumentException("Not an IP address: "+fields[1]);
+		Intermud2Contact contact = new Intermud2Contact(addr, Integer.parseInt(fields[2]));
+		contact.setPort(Integer.parseInt(fields[3]));
+		contact.setName(unescape(fields[4]));
+		contact.setMudName(unescape(fields[5]));
+		contact.setHost(unescape(fields[6]));
+		contact.setLocation(unescape(fields[7]));
+		contact.setEncoding(unescape(fields[8]));
+		contact.setDriver(unescape(fields[9]));
+		contact.setMudLib(unescape(fields[10]));
+		contact.setVersion(unescape(fields[11]));
+		contact.setMudGroup(unescape(fields[12]));
+		contact.setState(ContactState.valueOf(fields[13]));
+		String lastContact = unescape(fields[14]);
+		if (lastContact!=null)
+			contact.setLastContact(LocalDateTime.parse(lastContact));
+		if (!fields[15].isEmpty()) {
+			for (String service : fields[15].split(","))
+				contact.getServices().add(Service.valueOf(service));
+		}
+		return contact;
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @see org.prelle.intermud2.ContactRegistry.RegistryListener#contactAdded(org.prelle.intermud2.Intermud2Contact)
+	 */
+	@Override
+	public void contactAdded(Intermud2Contact contact) {
+		markDirty(contact);
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @see org.prelle.intermud2.ContactRegistry.RegistryListener#contactChanged(org.prelle.intermud2.Intermud2Contact)
+	 */
+	@Override
+	public void contactChanged(Intermud2Contact contact) {
+		markDirty(contact);
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @see org.prelle.intermud2.ContactRegistry.RegistryListener#contactRemoved(org.prelle.intermud2.Intermud2Contact)
+	 */
+	@Override
+	public void contactRemoved(Intermud2Contact contact) {
+		dirty.remove(contact);
+		String key = persistedKeys.remove(contact);
+		if (key!=null)
+			removed.add(key);
+		exportDirty = true;
+	}
+
+}
@@ -0,0 +1,81 @@
+package org.prelle.intermud2;
+
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.prelle.intermud2.I2Metrics.Rejection;
+
+/**
+ * Decides on the raw bytes whether a received datagram is worth parsing.
+ * Each source IP address has a token bucket; datagrams exceeding it are
+ * rejected, as are frames with a command that isn't accepted. Runs on
+ * the receiving threads, so it must be cheap.
+ */
+class I2Admission {
+
+	private final double rate;
+	private final int burst;
+	private final int maxSources;
+	private final Set<I2Command> accepted;
+	private final Map<InetAddress,TokenBucket> buckets = new ConcurrentHashMap<>();
+	/** Shared by all sources that don't fit into the map */
+	private final TokenBucket overflow;
+
+	//-------------------------------------------------------------------
+	/**
+	 * @param rate       Datagrams per second from one IP address
+	 * @param burst      Datagrams from one IP address that may arrive at once
+	 * @param maxSources Maximum number of IP addresses with a bucket of their own
+	 * @param accepted   Commands that are handled
+	 */
+	I2Admission(double rate, int burst, int maxSources, Set<I2Command> accepted) {
+		this.rate       = rate;
+		this.burst      = burst;
+		this.maxSources = maxSources;
+		this.accepted   = accepted;
+		this.overflow   = new TokenBucket(rate, burst);
+	}
+
+	//-------------------------------------------------------------------
+	private TokenBucket getBucket(InetAddress source) {
+		TokenBucket bucket = buckets.get(source);
+		if (bucket!=null)
+			return bucket;
+		if (buckets.size()>=maxSources) {
+			// Sources that have been quiet for a while
+			buckets.values().removeIf(TokenBucket::isFull);
+			if (buckets.size()>=maxSources)
+				return overflow;
+		}
+		return buckets.computeIfAbsent(source, k -> new TokenBucket(rate, burst));
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @param startOfFrame TRUE if the datagram starts a frame. Other
+	 *    datagrams continue a frame split across datagrams and have no
+	 *    command to check.
+	 * @return The reason for rejecting the datagram, or NULL if it may
+	 *    be processed
+	 */
+	Rejection check(byte[] data, int length, InetAddress source, boolean startOfFrame) {
+		if (!getBucket(source).tryAcquire())
+			return Rejection.RATE_LIMITED;
+		if (!startOfFrame)
+			return null;
+		if (length<6 || !I2Reassembler.startsFrame(data, length))
+			return Rejection.MALFORMED;
+		I2Command command = I2Command.of(data, length);
+		if (!accepted.contains(command))
+			return Rejection.UNKNOWN_COMMAND;
+		return null;
+	}
+
+	//-------------------------------------------------------------------
+	int getSourceCount() {
+		return buckets.size();
+	}
+
+}
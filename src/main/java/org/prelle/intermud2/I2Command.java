@@ -0,0 +1,94 @@
+package org.prelle.intermud2;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Commands of the Intermud 2 protocol. Used to count packets without
+ * allocating keys for every packet.
+ */
+public enum I2Command {
+
+	PING_Q("ping_q"),
+	PING_A("ping_a"),
+	MUDLIST_Q("mudlist_q"),
+	MUDLIST_A("mudlist_a"),
+	RWHO_Q("rwho_q"),
+	RWHO_A("rwho_a"),
+	SUPPORTED_Q("supported_q"),
+	SUPPORTED_A("supported_a"),
+	STARTUP("startup"),
+	SHUTDOWN("shutdown"),
+	GWIZMSG("gwizmsg"),
+	GCHANNEL("gchannel"),
+	GTELL("gtell"),
+	GFINGER_Q("gfinger_q"),
+	GFINGER_A("gfinger_a"),
+	LOCATE_Q("locate_q"),
+	LOCATE_A("locate_a"),
+	AFFIRMATION_A("affirmation_a"),
+	/** Any command not known */
+	OTHER(null)
+	;
+
+	private final String command;
+	private final byte[] raw;
+
+	private final static I2Command[] VALUES = values();
+	private final static Map<String,I2Command> BY_NAME = new HashMap<>();
+	static {
+		for (I2Command cmd : VALUES) {
+			if (cmd.command!=null)
+				BY_NAME.put(cmd.command, cmd);
+		}
+	}
+
+	//-------------------------------------------------------------------
+	I2Command(String command) {
+		this.command = command;
+		this.raw     = (command!=null)?command.getBytes(StandardCharsets.US_ASCII):null;
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @return The command as used in packets, or NULL for OTHER
+	 */
+	public String getCommand() {
+		return command;
+	}
+
+	//-------------------------------------------------------------------
+	public static I2Command of(String command) {
+		if (command==null)
+			return OTHER;
+		I2Command ret = BY_NAME.get(command);
+		return (ret!=null)?ret:OTHER;
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Detect the command of an encoded packet starting with "@@@",
+	 * possibly after whitespace the parser skips as well
+	 */
+	public static I2Command of(byte[] packet, int length) {
+		int start = 0;
+		while (start<length && (packet[start]&0xFF)<=' ') start++;
+		final int offset = start+3;
+		for (I2Command cmd : VALUES) {
+			byte[] raw = cmd.raw;
+			if (raw==null || offset+raw.length>length)
+				continue;
+			int i = 0;
+			while (i<raw.length && packet[offset+i]==raw[i]) i++;
+			if (i<raw.length)
+				continue;
+			// Command must end here
+			int end = offset+raw.length;
+			if (end==length || packet[end]=='|' || packet[end]=='@' || packet[end]==0)
+				return cmd;
+		}
+		return OTHER;
+	}
+
+}
@@ -1,8 +1,11 @@
 package org.prelle.intermud2;
 
-import java.net.InetAddress;
-import java.net.UnknownHostException;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
 
 import lombok.Builder;
 import lombok.Getter;
@@ -21,8 +24,146 @@ public class I2Config {
 	private String hostname;
 	@Builder.Default
 	private String bootmaster = "210.59.236.38 4004";
+	/**
+	 * Further MUDs served by this daemon. Each gets an I2 port of its
+	 * own, while contacts, threads and probing are shared.
+	 * <p>
+	 * The daemon doesn't know the address under which others reach it,
+	 * so the MUDs it serves are never listed in its own mudlist_a
+	 * answers. Other MUDs learn about each of them from the startup
+	 * message every identity sends, and from the bootmaster's list.
+	 */
+	@Builder.Default
+	private List<I2Identity> identities = List.of();
 	private Path exportTo;
 	private Path mudList;
+	/** Directory for the persisted contacts - nothing is persisted if NULL */
+	private Path stateDir;
+	/** Journal records after which the journal is compacted into a new snapshot */
+	@Builder.Default
+	private int journalCompactThreshold = 1000;
+	/** Largest datagram received or sent - larger ones are dropped */
+	@Builder.Default
+	private int maxPacketSize = 65507;
+	/** Largest message joined from several datagrams */
+	@Builder.Default
+	private int maxMessageSize = 256*1024;
+	/** Bytes of all messages waiting for further datagrams */
+	@Builder.Default
+	private int reassemblyMemory = 4*1024*1024;
+	/** Time to wait for the remaining datagrams of a message */
+	@Builder.Default
+	private Duration reassemblyTimeout = Duration.ofSeconds(10);
+	/** Datagrams per second accepted from a single IP address */
+	@Builder.Default
+	private double peerReceiveRate = 50;
+	/** Datagrams from a single IP address accepted at once, before peerReceiveRate applies */
+	@Builder.Default
+	private int peerReceiveBurst = 500;
+	/** IP addresses whose received datagrams are counted separately */
+	@Builder.Default
+	private int maxReceiveSources = 4096;
+	/**
+	 * Commands accepted from other MUDs - all others are dropped without
+	 * parsing. By default those the daemon handles; startup and rwho_q
+	 * are not answered.
+	 */
+	@Builder.Default
+	private Set<I2Command> acceptedCommands = EnumSet.of(I2Command.PING_Q, I2Command.PING_A, I2Command.MUDLIST_Q,
+			I2Command.MUDLIST_A, I2Command.RWHO_A, I2Command.SUPPORTED_A);
+	/** SO_RCVBUF for the I2 socket - 0 keeps the OS default */
+	private int receiveBufferSize;
+	/**
+	 * Sockets bound to the I2 port, each with a receiving thread of its
+	 * own. Values above 1 require SO_REUSEPORT (Linux)
+	 */
+	@Builder.Default
+	private int receiveThreads = 1;
+	/** Threads handling received messages. Messages from one peer are always handled in order */
+	@Builder.Default
+	private int dispatchThreads = 4;
+	/** Maximum number of received messages waiting for each handler thread */
+	@Builder.Default
+	private int dispatchQueueSize = 1024;
+	/** Maximum number of outgoing messages waiting to be sent */
+	@Builder.Default
+	private int sendQueueSize = 4096;
+	/** Outgoing packets per second, averaged */
+	@Builder.Default
+	private double sendRate = 200;
+	/** Outgoing packets that may be sent at once, before sendRate applies */
+	@Builder.Default
+	private int sendBurst = 50;
+	/** Outgoing packets per second to a single destination */
+	@Builder.Default
+	private double peerSendRate = 5;
+	/** Outgoing packets to a single destination that may be queued at once */
+	@Builder.Default
+	private int peerSendBurst = 20;
+	/** Maximum size of a mudlist_a packet sent to other MUDs */
+	@Builder.Default
+	private int mudlistPacketSize = 1024;
+	/** Number of recently processed mudlist_a entries remembered to skip repetitions - 0 disables */
+	@Builder.Default
+	private int mudlistDedupSize = 4096;
+	/** Time after which a repeated mudlist_a entry is processed again */
+	@Builder.Default
+	private Duration mudlistDedupTTL = Duration.ofMinutes(10);
+	/** Threads for DNS lookups */
+	@Builder.Default
+	private int dnsThreads = 2;
+	/** Maximum number of DNS lookups waiting for a thread */
+	@Builder.Default
+	private int dnsQueueSize = 256;
+	/** How long resolved addresses are cached */
+	@Builder.Default
+	private Duration dnsCacheTTL = Duration.ofMinutes(30);
+	/** How long failed lookups are cached */
+	@Builder.Default
+	private Duration dnsNegativeTTL = Duration.ofMinutes(5);
+	/** How often MUDs that are not known to be online are pinged */
+	@Builder.Default
+	private Duration pingInterval = Duration.ofMinutes(1);
+	/** How often online MUDs are pinged */
+	@Builder.Default
+	private Duration refreshInterval = Duration.ofMinutes(5);
+	/** Fraction of an interval by which each probe time varies randomly */
+	@Builder.Default
+	private double probeJitter = 0.2;
+	/** Time after which an unanswered ping counts as missed */
+	@Builder.Default
+	private Duration pingTimeout = Duration.ofSeconds(30);
+	/** Upper limit for the backoff of pings to unresponsive MUDs */
+	@Builder.Default
+	private Duration maxProbeInterval = Duration.ofHours(6);
+	/** Missed pings in a row after which an online MUD is considered offline */
+	@Builder.Default
+	private int missedProbesOffline = 3;
+	/** Time to wait for the answer to a query */
+	@Builder.Default
+	private Duration queryTimeout = Duration.ofSeconds(30);
+	/** A multi packet answer is complete, if no further packet arrived for this time */
+	@Builder.Default
+	private Duration answerCollectWindow = Duration.ofSeconds(2);
+	/** Changes of a MUD within this time are reported as one event */
+	@Builder.Default
+	private Duration eventCoalesceWindow = Duration.ofMillis(500);
+	/**
+	 * Delivers events to listeners - if NULL, a thread of its own is used.
+	 * Batches are delivered in order even if it has several threads.
+	 */
+	private Executor eventExecutor;
+	/** How long rwho answers are reused before asking the MUD again */
+	@Builder.Default
+	private Duration rwhoCacheTTL = Duration.ofMinutes(1);
+	/** Time to wait for queued messages to be sent when stopping */
+	@Builder.Default
+	private Duration shutdownTimeout = Duration.ofSeconds(2);
+	/** Register the statistics as MBean */
+	@Builder.Default
+	private boolean jmx = true;
+	/** Additional receiver of measurements, besides the built-in statistics */
+	private I2Metrics metrics;
 
 	
 	public int getI2Port() {
@@ -33,8 +174,15 @@ public class I2Config {
 		return (mudName!=null)?mudName:name;
 	}
 	
-	public InetAddress getBootmasterIP() throws UnknownHostException {
-		return InetAddress.getByName(bootmaster.split(" ")[0]);
+	/**
+	 * @return The MUD configured by name, port and hostname
+	 */
+	public I2Identity getIdentity() {
+		return I2Identity.builder().name(name).mudName(mudName).hostname(hostname).port(port).i2Port(i2Port).build();
+	}
+	
+	public String getBootmasterHost() {
+		return bootmaster.split(" ")[0];
 	}
 	
 	public int getBootmasterPort() {
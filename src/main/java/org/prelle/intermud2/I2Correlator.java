@@ -0,0 +1,215 @@
+package org.prelle.intermud2;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
+
+import org.prelle.intermud2.Intermud2Demon.I2Message;
+
+/**
+ * Matches answers to the queries they belong to. Every query gets a
+ * unique ANSWERID. Since not every MUD echoes the ANSWERID, answers are
+ * also matched by sender and answer command. A query to the same target
+ * that is still waiting for an answer is not sent again; both callers
+ * share the same answer.
+ * <p>
+ * {@link #expire()} must be called regularly to fail queries that were
+ * never answered.
+ */
+class I2Correlator {
+
+	/**
+	 * Identifies an expected answer, if the ANSWERID is not echoed
+	 * @param detail Additional distinction, like CMD for supported_a
+	 */
+	static record Key(InetAddress address, int port, I2Command answer, String detail) {}
+
+	private static class Pending {
+		final long id;
+		final Key key;
+		final long expires;
+		/** Collect all answer packets, instead of completing with the first */
+		final boolean collect;
+		final CompletableFuture<I2Message> single = new CompletableFuture<>();
+		final CompletableFuture<List<I2Message>> all = new CompletableFuture<>();
+		final List<I2Message> collected;
+		volatile long lastAnswer;
+		Pending(long id, Key key, long expires, boolean collect) {
+			this.id = id;
+			this.key = key;
+			this.expires = expires;
+			this.collect = collect;
+			this.collected = collect?Collections.synchronizedList(new ArrayList<>()):null;
+		}
+	}
+
+	private final AtomicLong nextId = new AtomicLong(ThreadLocalRandom.current().nextInt(1, Integer.MAX_VALUE));
+	private final Map<Long,Pending> byId = new ConcurrentHashMap<>();
+	private final Map<Key,Pending> byKey = new ConcurrentHashMap<>();
+	private final long timeout;
+	private final long collectWindow;
+
+	//-------------------------------------------------------------------
+	/**
+	 * @param timeout       Time to wait for an answer
+	 * @param collectWindow For multi packet answers: time without further
+	 *    packets after which the answer is considered complete
+	 */
+	I2Correlator(Duration timeout, Duration collectWindow) {
+		this.timeout = timeout.toNanos();
+		this.collectWindow = collectWindow.toNanos();
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @return A new ANSWERID
+	 */
+	long nextId() {
+		return nextId.incrementAndGet();
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Send a query and wait for a single answer packet
+	 * @param send Sends the query with the given ANSWERID
+	 */
+	CompletableFuture<I2Message> expect(Key key, LongFunction<SendStatus> send) {
+		return register(key, false, send).single.copy();
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Send a query and collect all answer packets, until no more packets
+	 * arrive within the collect window
+	 * @param send Sends the query with the given ANSWERID
+	 */
+	CompletableFuture<List<I2Message>> expectAll(Key key, LongFunction<SendStatus> send) {
+		return register(key, true, send).all.copy();
+	}
+
+	//-------------------------------------------------------------------
+	private Pending register(Key key, boolean collect, LongFunction<SendStatus> send) {
+		Pending created = new Pending(nextId(), key, System.nanoTime()+timeout, collect);
+		Pending existing = byKey.putIfAbsent(key, created);
+		if (existing!=null)
+			return existing;
+		byId.put(created.id, created);
+
+		SendStatus status = send.apply(created.id);
+		if (!status.isQueued()) {
+			remove(created);
+			fail(created, new IOException("Query not sent: "+status));
+		}
+		return created;
+	}
+
+	//-------------------------------------------------------------------
+	private void remove(Pending pending) {
+		byId.remove(pending.id, pending);
+		byKey.remove(pending.key, pending);
+	}
+
+	//-------------------------------------------------------------------
+	private static void fail(Pending pending, Throwable error) {
+		pending.single.completeExceptionally(error);
+		pending.all.completeExceptionally(error);
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Complete the query an answer belongs to - if any
+	 * @return TRUE if the answer was expected
+	 */
+	boolean answered(I2Message answer) {
+		Pending pending = null;
+		Key key = keyOf(answer);
+		String answerId = answer.parameter().get("ANSWERID");
+		if (answerId!=null) {
+			try {
+				pending = byId.get(Long.parseLong(answerId.trim()));
+			} catch (NumberFormatException e) {
+				// Not one of ours
+			}
+			// IDs are easy to guess - only the queried MUD may answer.
+			// The port is not compared, as some MUDs send from another one.
+			if (pending!=null && (!pending.key.address().equals(key.address()) || pending.key.answer()!=key.answer()))
+				pending = null;
+		}
+		if (pending==null) {
+			pending = byKey.get(key);
+		}
+		if (pending==null)
+			return false;
+
+		if (pending.collect) {
+			pending.collected.add(answer);
+			pending.lastAnswer = System.nanoTime();
+		} else {
+			remove(pending);
+			pending.single.complete(answer);
+		}
+		return true;
+	}
+
+	//-------------------------------------------------------------------
+	static Key keyOf(I2Message answer) {
+		int port = answer.port();
+		try {
+			if (answer.parameter().get("PORTUDP")!=null)
+				port = answer.getUdpPort();
+		} catch (NumberFormatException e) {
+			// Use the source port
+		}
+		I2Command command = I2Command.of(answer.command());
+		String detail = (command==I2Command.SUPPORTED_A)?answer.parameter().get("CMD"):null;
+		return new Key(answer.sender(), port, command, detail);
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Complete collected answers and fail queries that timed out
+	 */
+	void expire() {
+		long now = System.nanoTime();
+		for (Pending pending : byId.values()) {
+			if (pending.collect && pending.lastAnswer!=0 && now-pending.lastAnswer>collectWindow) {
+				remove(pending);
+				pending.all.complete(List.copyOf(pending.collected));
+			} else if (now-pending.expires>0) {
+				remove(pending);
+				if (pending.collect && !pending.collected.isEmpty()) {
+					pending.all.complete(List.copyOf(pending.collected));
+				} else {
+					fail(pending, new TimeoutException("No answer from "+pending.key.address().getHostAddress()+":"+pending.key.port()));
+				}
+			}
+		}
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Fail all outstanding queries
+	 */
+	void cancelAll() {
+		for (Pending pending : byId.values()) {
+			remove(pending);
+			fail(pending, new IOException("Daemon stopped"));
+		}
+	}
+
+	//-------------------------------------------------------------------
+	int getPendingCount() {
+		return byId.size();
+	}
+
+}
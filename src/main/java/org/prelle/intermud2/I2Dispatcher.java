@@ -0,0 +1,132 @@
+package org.prelle.intermud2;
+
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import org.prelle.intermud2.Intermud2Demon.I2Message;
+
+/**
+ * Hands received messages to a fixed number of worker threads. All
+ * messages from the same sender address and port are handled by the
+ * same worker, so they are processed in the order they arrived, while
+ * messages from different peers are processed concurrently.
+ */
+class I2Dispatcher {
+
+	private final static Logger logger = System.getLogger("intermud2");
+
+	private final Lane[] lanes;
+	private final Consumer<I2Message> handler;
+	private final LongAdder dropped = new LongAdder();
+	private volatile boolean running;
+
+	//-------------------------------------------------------------------
+	private class Lane implements Runnable {
+		private final BlockingQueue<I2Message> queue;
+		private Thread thread;
+
+		Lane(int queueSize) {
+			queue = new ArrayBlockingQueue<>(queueSize);
+		}
+
+		@Override
+		public void run() {
+			while (running) {
+				I2Message mess;
+				try {
+					mess = queue.take();
+				} catch (InterruptedException e) {
+					break;
+				}
+				try {
+					handler.accept(mess);
+				} catch (Exception e) {
+					logger.log(Level.WARNING, "Error handling "+mess.command()+" from "+mess.sender(), e);
+				}
+			}
+		}
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @param workers   Number of worker threads
+	 * @param queueSize Maximum number of messages waiting per worker
+	 */
+	I2Dispatcher(int workers, int queueSize, Consumer<I2Message> handler) {
+		this.handler = handler;
+		lanes = new Lane[Math.max(1, workers)];
+		for (int i=0; i<lanes.length; i++) {
+			lanes[i] = new Lane(queueSize);
+		}
+	}
+
+	//-------------------------------------------------------------------
+	void start(String threadName) {
+		running = true;
+		for (int i=0; i<lanes.length; i++) {
+			lanes[i].thread = new Thread(lanes[i], threadName+" "+i);
+			lanes[i].thread.setDaemon(true);
+			lanes[i].thread.start();
+		}
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Stop the worker threads. Returns when they have finished, or the
+	 * timeout passed.
+	 */
+	void stop(Duration timeout) {
+		running = false;
+		for (Lane lane : lanes) {
+			if (lane.thread!=null)
+				lane.thread.interrupt();
+		}
+		long deadline = System.nanoTime()+timeout.toNanos();
+		for (Lane lane : lanes) {
+			if (lane.thread==null || lane.thread==Thread.currentThread())
+				continue;
+			try {
+				lane.thread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline-System.nanoTime())));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Queue a message for handling.
+	 * @return FALSE, if the queue for the sender is full and the message
+	 *    has been dropped
+	 */
+	boolean dispatch(I2Message mess) {
+		int hash = 31*mess.sender().hashCode() + mess.port();
+		Lane lane = lanes[Math.floorMod(hash, lanes.length)];
+		if (lane.queue.offer(mess))
+			return true;
+		dropped.increment();
+		logger.log(Level.DEBUG, "Dispatch queue full - dropped {0} from {1}", mess.command(), mess.sender());
+		return false;
+	}
+
+	//-------------------------------------------------------------------
+	int getQueueDepth() {
+		int sum = 0;
+		for (Lane lane : lanes)
+			sum += lane.queue.size();
+		return sum;
+	}
+
+	//-------------------------------------------------------------------
+	long getDropped() {
+		return dropped.sum();
+	}
+
+}
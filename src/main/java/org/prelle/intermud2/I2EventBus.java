@@ -0,0 +1,242 @@
+package org.prelle.intermud2;
+
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.prelle.intermud2.I2EventListener.Field;
+import org.prelle.intermud2.Intermud2Contact.ContactState;
+import org.prelle.intermud2.Intermud2Contact.Service;
+
+/**
+ * Turns registry notifications into events for {@link I2EventListener}s.
+ * Contacts are compared with the state of the last event, so that
+ * notifications without a real change are dropped. Changes are collected
+ * until {@link #flush()} is called and then delivered as one batch on
+ * the executor. Batches are delivered one after the other, even if the
+ * executor has several threads.
+ */
+class I2EventBus implements ContactRegistry.RegistryListener {
+
+	private final static Logger logger = System.getLogger("intermud2");
+
+	/**
+	 * Properties of a contact at the time of the last event
+	 */
+	private static record Fields(String name, String mudName, String host, String location, String encoding,
+			String driver, String mudLib, String version, String mudGroup, InetAddress address, int im2Port,
+			int port, Set<Service> services, ContactState state) {
+
+		static Fields of(Intermud2Contact c) {
+			Set<Service> services = EnumSet.noneOf(Service.class);
+			services.addAll(c.getServices());
+			return new Fields(c.getName(), c.getMudName(), c.getHost(), c.getLocation(), c.getEncoding(),
+					c.getDriver(), c.getMudLib(), c.getVersion(), c.getMudGroup(), c.getIpAddress(), c.getIm2Port(),
+					c.getPort(), services, c.getState());
+		}
+
+		Set<Field> diff(Fields o) {
+			Set<Field> ret = EnumSet.noneOf(Field.class);
+			if (!Objects.equals(name, o.name)) ret.add(Field.NAME);
+			if (!Objects.equals(mudName, o.mudName)) ret.add(Field.MUDNAME);
+			if (!Objects.equals(host, o.host)) ret.add(Field.HOST);
+			if (!Objects.equals(location, o.location)) ret.add(Field.LOCATION);
+			if (!Objects.equals(encoding, o.encoding)) ret.add(Field.ENCODING);
+			if (!Objects.equals(driver, o.driver)) ret.add(Field.DRIVER);
+			if (!Objects.equals(mudLib, o.mudLib)) ret.add(Field.MUDLIB);
+			if (!Objects.equals(version, o.version)) ret.add(Field.VERSION);
+			if (!Objects.equals(mudGroup, o.mudGroup)) ret.add(Field.MUDGROUP);
+			if (!Objects.equals(address, o.address) || im2Port!=o.im2Port) ret.add(Field.ADDRESS);
+			if (port!=o.port) ret.add(Field.PORT);
+			if (!services.equals(o.services)) ret.add(Field.SERVICES);
+			return ret;
+		}
+	}
+
+	/**
+	 * Changes of one contact since the last batch
+	 */
+	private static class Change {
+		boolean added;
+		boolean removed;
+		final Set<Field> changed = EnumSet.noneOf(Field.class);
+		ContactState from;
+		ContactState to;
+		boolean isEmpty() {
+			return !added && !removed && changed.isEmpty() && from==to;
+		}
+	}
+
+	private final List<I2EventListener> listeners = new CopyOnWriteArrayList<>();
+	private final Map<Intermud2Contact,Fields> known = new ConcurrentHashMap<>();
+	/** Guarded by this */
+	private Map<Intermud2Contact,Change> pending = new LinkedHashMap<>();
+	private final Executor executor;
+	/** Completes when the last batch has been delivered - guarded by this */
+	private CompletableFuture<Void> delivered = CompletableFuture.completedFuture(null);
+	/** Only set if the executor has been created here */
+	private final ExecutorService ownExecutor;
+
+	//-------------------------------------------------------------------
+	/**
+	 * @param executor Delivers the events - if NULL, a thread of its own
+	 *    is used
+	 */
+	I2EventBus(Executor executor) {
+		if (executor==null) {
+			ownExecutor = Executors.newSingleThreadExecutor(r -> {
+				Thread t = new Thread(r, "Intermud IM2 Events");
+				t.setDaemon(true);
+				return t;
+			});
+			this.executor = ownExecutor;
+		} else {
+			ownExecutor = null;
+			this.executor = executor;
+		}
+	}
+
+	//-------------------------------------------------------------------
+	void addListener(I2EventListener listener) {
+		listeners.add(listener);
+	}
+
+	//-------------------------------------------------------------------
+	void removeListener(I2EventListener listener) {
+		listeners.remove(listener);
+	}
+
+	//-------------------------------------------------------------------
+	void stop() {
+		if (ownExecutor!=null)
+			ownExecutor.shutdown();
+	}
+
+	//-------------------------------------------------------------------
+	private Change change(Intermud2Contact contact) {
+		return pending.computeIfAbsent(contact, c -> new Change());
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @see org.prelle.intermud2.ContactRegistry.RegistryListener#contactAdded(org.prelle.intermud2.Intermud2Contact)
+	 */
+	@Override
+	public void contactAdded(Intermud2Contact contact) {
+		Fields now = Fields.of(contact);
+		synchronized (this) {
+			known.put(contact, now);
+			Change change = change(contact);
+			change.removed = false;
+			change.added = true;
+		}
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @see org.prelle.intermud2.ContactRegistry.RegistryListener#contactChanged(org.prelle.intermud2.Intermud2Contact)
+	 */
+	@Override
+	public void contactChanged(Intermud2Contact contact) {
+		Fields now = Fields.of(contact);
+		synchronized (this) {
+			Fields before = known.put(contact, now);
+			if (before==null) {
+				change(contact).added = true;
+				return;
+			}
+			Set<Field> diff = before.diff(now);
+			if (diff.isEmpty() && before.state()==now.state())
+				return;
+			Change change = change(contact);
+			change.changed.addAll(diff);
+			if (before.state()!=now.state()) {
+				if (change.from==null)
+					change.from = before.state();
+				change.to = now.state();
+			}
+		}
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @see org.prelle.intermud2.ContactRegistry.RegistryListener#contactRemoved(org.prelle.intermud2.Intermud2Contact)
+	 */
+	@Override
+	public void contactRemoved(Intermud2Contact contact) {
+		synchronized (this) {
+			known.remove(contact);
+			Change change = change(contact);
+			if (change.added) {
+				// Nobody has seen it yet
+				pending.remove(contact);
+			} else {
+				change.removed = true;
+			}
+		}
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Deliver all changes collected since the last call
+	 */
+	synchronized void flush() {
+		if (pending.isEmpty())
+			return;
+		Map<Intermud2Contact,Change> batch = pending;
+		pending = new LinkedHashMap<>();
+		// Changes that have been reverted in the meantime
+		batch.values().removeIf(Change::isEmpty);
+		if (batch.isEmpty() || listeners.isEmpty())
+			return;
+		// Start after the previous batch, even if that one failed
+		delivered = delivered.exceptionally(e -> null).thenRunAsync(() -> deliver(batch), executor);
+	}
+
+	//-------------------------------------------------------------------
+	private void deliver(Map<Intermud2Contact,Change> batch) {
+		for (I2EventListener listener : listeners) {
+			try {
+				for (Map.Entry<Intermud2Contact,Change> entry : batch.entrySet()) {
+					Intermud2Contact contact = entry.getKey();
+					Change change = entry.getValue();
+					if (change.added) {
+						listener.contactAdded(contact);
+					} else if (change.removed) {
+						listener.contactRemoved(contact);
+					} else {
+						if (!change.changed.isEmpty())
+							listener.contactChanged(contact, Collections.unmodifiableSet(change.changed));
+						if (change.from!=change.to)
+							listener.stateChanged(contact, change.from, change.to);
+					}
+				}
+				listener.batchFinished();
+			} catch (RuntimeException e) {
+				logger.log(Level.ERROR, "Event listener failed", e);
+			}
+		}
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @return Number of contacts with undelivered changes
+	 */
+	synchronized int getPendingCount() {
+		return pending.size();
+	}
+
+}
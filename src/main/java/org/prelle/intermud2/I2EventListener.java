@@ -0,0 +1,50 @@
+package org.prelle.intermud2;
+
+import java.util.Set;
+
+import org.prelle.intermud2.Intermud2Contact.ContactState;
+
+/**
+ * Informed about changes of known MUDs. Events are only sent for real
+ * changes, and several changes of the same MUD within a short time are
+ * combined into one event. Events are delivered in batches on a thread
+ * of their own - never on a network thread.
+ */
+public interface I2EventListener {
+
+	/**
+	 * Properties of a contact that can change
+	 */
+	public static enum Field {
+		NAME,
+		MUDNAME,
+		HOST,
+		LOCATION,
+		ENCODING,
+		DRIVER,
+		MUDLIB,
+		VERSION,
+		MUDGROUP,
+		/** IP address or UDP port */
+		ADDRESS,
+		PORT,
+		SERVICES
+	}
+
+	public default void contactAdded(Intermud2Contact contact) {}
+
+	/**
+	 * @param changed Fields that are different from the last event
+	 */
+	public default void contactChanged(Intermud2Contact contact, Set<Field> changed) {}
+
+	public default void stateChanged(Intermud2Contact contact, ContactState from, ContactState to) {}
+
+	public default void contactRemoved(Intermud2Contact contact) {}
+
+	/**
+	 * Called after all events of a batch have been delivered
+	 */
+	public default void batchFinished() {}
+
+}
@@ -0,0 +1,29 @@
+package org.prelle.intermud2;
+
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * A MUD as it presents itself to the Intermud 2 network
+ */
+@Getter
+@Builder
+public class I2Identity {
+
+	private String name;
+	private String mudName;
+	private String hostname;
+	/** Game port */
+	private int port;
+	/** UDP port for Intermud 2 - if NULL, the game port + 4 */
+	private Integer i2Port;
+
+	public int getI2Port() {
+		return (i2Port!=null)?i2Port:(port+4);
+	}
+
+	public String getMudName() {
+		return (mudName!=null)?mudName:name;
+	}
+
+}
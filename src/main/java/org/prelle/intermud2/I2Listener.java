@@ -1,10 +1,33 @@
 package org.prelle.intermud2;
 
+import java.util.Set;
+
+import org.prelle.intermud2.Intermud2Contact.ContactState;
+
 /**
- * 
+ * Simple listener that is informed about new and changed MUDs,
+ * including MUDs going online or offline
  */
-public interface I2Listener {
+public interface I2Listener extends I2EventListener {
 
 	public void newOrUpdatedMUDStats(Intermud2Contact contact);
-	
+
+	//-------------------------------------------------------------------
+	@Override
+	public default void contactAdded(Intermud2Contact contact) {
+		newOrUpdatedMUDStats(contact);
+	}
+
+	//-------------------------------------------------------------------
+	@Override
+	public default void contactChanged(Intermud2Contact contact, Set<Field> changed) {
+		newOrUpdatedMUDStats(contact);
+	}
+
+	//-------------------------------------------------------------------
+	@Override
+	public default void stateChanged(Intermud2Contact contact, ContactState from, ContactState to) {
+		newOrUpdatedMUDStats(contact);
+	}
+
 }
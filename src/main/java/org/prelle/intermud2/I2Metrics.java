@@ -0,0 +1,77 @@
+package org.prelle.intermud2;
+
+/**
+ * Receives measurements from the daemon. Implementations are called on
+ * the network and handler threads, so they must be thread safe and
+ * should neither block nor allocate. All times are in nanoseconds.
+ */
+public interface I2Metrics {
+
+	/**
+	 * Reasons for rejecting a datagram before parsing it
+	 */
+	public static enum Rejection {
+		/** Too many datagrams from the same IP address */
+		RATE_LIMITED,
+		/** Not an Intermud 2 frame */
+		MALFORMED,
+		/** A command that isn't accepted */
+		UNKNOWN_COMMAND
+	}
+
+	/** Discards all measurements */
+	public final static I2Metrics NONE = new I2Metrics() {};
+
+	public default void packetReceived(I2Command command) {}
+
+	public default void packetSent(I2Command command) {}
+
+	/**
+	 * A packet was not processed or not sent, e.g. because of full queues
+	 * or rate limits
+	 */
+	public default void packetDropped(I2Command command) {}
+
+	/** A received packet was not a valid Intermud 2 frame */
+	public default void parseFailure() {}
+
+	/** A received packet was dropped before parsing it */
+	public default void packetRejected(Rejection reason) {}
+
+	public default void handlerTime(I2Command command, long nanos) {}
+
+	public default void pingRoundTrip(long nanos) {}
+
+	public default void hostListSaved(long nanos) {}
+
+	public default void dnsLookup(long nanos) {}
+
+	/**
+	 * An entry of a mudlist_a has been received
+	 * @param duplicate TRUE if the entry was skipped, because it has
+	 *    been processed recently
+	 */
+	public default void mudlistEntry(boolean duplicate) {}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @return Metrics that forward to both given metrics
+	 */
+	public static I2Metrics both(I2Metrics first, I2Metrics second) {
+		if (second==null || second==NONE) return first;
+		if (first==null || first==NONE) return second;
+		return new I2Metrics() {
+			public void packetReceived(I2Command command) { first.packetReceived(command); second.packetReceived(command); }
+			public void packetSent(I2Command command) { first.packetSent(command); second.packetSent(command); }
+			public void packetDropped(I2Command command) { first.packetDropped(command); second.packetDropped(command); }
+			public void parseFailure() { first.parseFailure(); second.parseFailure(); }
+			public void packetRejected(Rejection reason) { first.packetRejected(reason); second.packetRejected(reason); }
+			public void handlerTime(I2Command command, long nanos) { first.handlerTime(command, nanos); second.handlerTime(command, nanos); }
+			public void pingRoundTrip(long nanos) { first.pingRoundTrip(nanos); second.pingRoundTrip(nanos); }
+			public void hostListSaved(long nanos) { first.hostListSaved(nanos); second.hostListSaved(nanos); }
+			public void dnsLookup(long nanos) { first.dnsLookup(nanos); second.dnsLookup(nanos); }
+			public void mudlistEntry(boolean duplicate) { first.mudlistEntry(duplicate); second.mudlistEntry(duplicate); }
+		};
+	}
+
+}
@@ -0,0 +1,226 @@
+package org.prelle.intermud2;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.prelle.intermud2.Intermud2Demon.I2Message;
+
+/**
+ * Parses Intermud2 frames like <code>@@@command||KEY:value||KEY:value@@@</code>
+ * in one pass over the raw bytes. Every value is decoded exactly once -
+ * pure ASCII values without a charset decoder.
+ */
+class I2Parser {
+
+	private final static byte[] ENCODING_KEY = "||ENCODING:".getBytes(StandardCharsets.US_ASCII);
+	private final static byte FRAME = '@';
+	private final static byte SEP   = '|';
+	private final static byte COLON = ':';
+
+	/**
+	 * A charset together with the information needed to find delimiters
+	 * in its byte stream.
+	 */
+	private static class Codec {
+		final Charset charset;
+		/** Bytes that start a double byte character, or null if the charset never uses '|' in multi-byte characters */
+		final boolean[] leadBytes;
+		final ThreadLocal<CharsetDecoder> decoder;
+
+		Codec(Charset charset, boolean[] leadBytes) {
+			this.charset   = charset;
+			this.leadBytes = leadBytes;
+			this.decoder   = ThreadLocal.withInitial(() -> charset.newDecoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE));
+		}
+	}
+
+	private final static Codec UTF8 = new Codec(StandardCharsets.UTF_8, null);
+	private final static Map<String,Codec> CODECS = new ConcurrentHashMap<>();
+
+	//-------------------------------------------------------------------
+	private I2Parser() {}
+
+	//-------------------------------------------------------------------
+	private static boolean[] leadBytes(int from, int to) {
+		boolean[] ret = new boolean[256];
+		for (int i=from; i<=to; i++)
+			ret[i] = true;
+		return ret;
+	}
+
+	//-------------------------------------------------------------------
+	private static Codec createCodec(String name) {
+		Charset cs;
+		try {
+			cs = Charset.forName(name);
+		} catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+			throw new MalformedFrameException("Unsupported encoding "+name);
+		}
+		// Double byte charsets whose second byte may be '|'
+		switch (cs.name()) {
+		case "Big5", "Big5-HKSCS", "x-windows-950", "x-MS950-HKSCS", "GBK", "GB18030":
+			return new Codec(cs, leadBytes(0x81, 0xFE));
+		case "Shift_JIS", "windows-31j":
+			boolean[] lead = leadBytes(0x81, 0x9F);
+			for (int i=0xE0; i<=0xFC; i++) lead[i]=true;
+			return new Codec(cs, lead);
+		default:
+			return new Codec(cs, null);
+		}
+	}
+
+	//-------------------------------------------------------------------
+	private static Codec getCodec(byte[] data, int from, int to) {
+		int value = indexOf(data, from, to, ENCODING_KEY);
+		if (value<0)
+			return UTF8;
+		value += ENCODING_KEY.length;
+		int end = value;
+		while (end<to && data[end]!=SEP) end++;
+		String name = ascii(data, value, end);
+		Codec codec = CODECS.get(name);
+		if (codec==null) {
+			codec = createCodec(name);
+			CODECS.putIfAbsent(name, codec);
+		}
+		return codec;
+	}
+
+	//-------------------------------------------------------------------
+	private static int indexOf(byte[] data, int from, int to, byte[] pattern) {
+		outer:
+		for (int i=from; i<=to-pattern.length; i++) {
+			for (int j=0; j<pattern.length; j++) {
+				if (data[i+j]!=pattern[j]) continue outer;
+			}
+			return i;
+		}
+		return -1;
+	}
+
+	//-------------------------------------------------------------------
+	private static String ascii(byte[] data, int from, int to) {
+		return new String(data, from, to-from, StandardCharsets.ISO_8859_1);
+	}
+
+	//-------------------------------------------------------------------
+	private static String decode(byte[] data, int from, int to, boolean ascii, Codec codec) {
+		if (ascii)
+			return ascii(data, from, to);
+		try {
+			return codec.decoder.get().decode(ByteBuffer.wrap(data, from, to-from)).toString();
+		} catch (CharacterCodingException e) {
+			// Cannot happen with REPLACE actions
+			return new String(data, from, to-from, codec.charset);
+		}
+	}
+
+	//-------------------------------------------------------------------
+	private static boolean isFrame(byte[] data, int pos) {
+		return data[pos]==FRAME && data[pos+1]==FRAME && data[pos+2]==FRAME;
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Parse a single frame. Surrounding whitespace and a trailing zero
+	 * terminator are ignored.
+	 * @throws MalformedFrameException if the data is not a valid frame
+	 */
+	static I2Message parse(byte[] data, int offset, int length, InetAddress sender, int port) {
+		return parse(data, offset, length, sender, port, null);
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Parse a single frame received for the given identity
+	 * @throws MalformedFrameException if the data is not a valid frame
+	 */
+	static I2Message parse(byte[] data, int offset, int length, InetAddress sender, int port, I2Identity recipient) {
+		int start = offset;
+		int end   = offset+length;
+		while (end>start && (data[end-1]&0xFF)<=' ') end--;
+		while (start<end && (data[start]&0xFF)<=' ') start++;
+		if (end-start<6 || !isFrame(data, start) || !isFrame(data, end-3))
+			throw new MalformedFrameException("Missing @@@ framing");
+		start += 3;
+		end   -= 3;
+
+		Codec codec = getCodec(data, start, end);
+		boolean[] lead = codec.leadBytes;
+
+		String command = null;
+		Map<String,String> params = new HashMap<>();
+		int segStart = start;
+		int colon    = -1;
+		boolean ascii = true;
+		for (int i=start; i<=end; i++) {
+			if (i<end) {
+				byte b = data[i];
+				if (b<0) {
+					ascii = false;
+					if (lead!=null && lead[b&0xFF] && i+1<end) i++;
+					continue;
+				}
+				if (b==COLON && colon<0) {
+					colon = i;
+					continue;
+				}
+				if (b!=SEP || i+1>=end || data[i+1]!=SEP)
+					continue;
+			}
+			// Segment ends at i
+			if (command==null) {
+				if (i==segStart || !ascii)
+					throw new MalformedFrameException("Invalid command");
+				command = ascii(data, segStart, i);
+			} else if (colon>segStart) {
+				params.put(decode(data, segStart, colon, ascii, codec), decode(data, colon+1, i, ascii, codec));
+			} else {
+				params.put(decode(data, segStart, i, ascii, codec), null);
+			}
+			i++;
+			segStart = i+1;
+			colon    = -1;
+			ascii    = true;
+		}
+
+		return new I2Message(command, params, sender, port, recipient);
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Split a mudlist entry like <code>|NAME:x|HOST:y</code> into its
+	 * key/value pairs.
+	 */
+	static Map<String,String> parseSubParameter(String data) {
+		Map<String,String> ret = new HashMap<>();
+		int len = data.length();
+		int segStart = 0;
+		while (segStart<=len) {
+			int segEnd = data.indexOf('|', segStart);
+			if (segEnd<0) segEnd = len;
+			int colon = segStart;
+			while (colon<segEnd && data.charAt(colon)!=':') colon++;
+			if (colon>segStart && colon<segEnd) {
+				ret.put(data.substring(segStart, colon), data.substring(colon+1, segEnd));
+			} else if (segEnd>segStart || segEnd<len) {
+				ret.put(data.substring(segStart, segEnd), null);
+			}
+			segStart = segEnd+1;
+		}
+		return ret;
+	}
+
+}
@@ -0,0 +1,228 @@
+package org.prelle.intermud2;
+
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Joins frames that a MUD split across several datagrams. The first
+ * datagram starts with "@@@" but lacks the closing "@@@", the following
+ * ones continue the frame until one ends with "@@@". Incomplete frames
+ * are kept per sender and ANSWERID; datagrams without a header belong
+ * to the frame the sender started last.
+ * <p>
+ * The memory of all incomplete frames is limited - if it is exceeded,
+ * the oldest frames are dropped. Frames that are not completed in time
+ * are dropped by {@link #expire()}.
+ */
+class I2Reassembler {
+
+	private final static Logger logger = System.getLogger("intermud2");
+
+	private final static byte[] ANSWERID = "||ANSWERID:".getBytes(StandardCharsets.US_ASCII);
+
+	private static record Key(InetSocketAddress sender, String answerId) {}
+
+	private static class Partial {
+		final Key key;
+		final long started;
+		byte[] data;
+		int length;
+		Partial(Key key, long started, int capacity) {
+			this.key     = key;
+			this.started = started;
+			this.data    = new byte[capacity];
+		}
+		void append(byte[] buf, int len) {
+			if (length+len>data.length)
+				data = Arrays.copyOf(data, Math.max(length+len, data.length*2));
+			System.arraycopy(buf, 0, data, length, len);
+			length += len;
+		}
+	}
+
+	private final int maxMessageSize;
+	private final int maxMemory;
+	private final long timeout;
+	/** Oldest first - guarded by this */
+	private final Map<Key,Partial> partials = new LinkedHashMap<>();
+	/** The frame each sender started last - written while holding this */
+	private final Map<InetSocketAddress,Key> current = new ConcurrentHashMap<>();
+	private int memory;
+	private volatile boolean empty = true;
+
+	//-------------------------------------------------------------------
+	/**
+	 * @param maxMessageSize Maximum size of a joined frame
+	 * @param maxMemory      Maximum number of bytes of all incomplete frames
+	 * @param timeout        Time to wait for the missing parts of a frame
+	 */
+	I2Reassembler(int maxMessageSize, int maxMemory, Duration timeout) {
+		this.maxMessageSize = maxMessageSize;
+		this.maxMemory      = maxMemory;
+		this.timeout        = timeout.toNanos();
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @return Position after the content, ignoring trailing whitespace
+	 *    and zero terminators
+	 */
+	private static int trimmedEnd(byte[] data, int length) {
+		while (length>0 && (data[length-1]&0xFF)<=' ') length--;
+		return length;
+	}
+
+	//-------------------------------------------------------------------
+	static boolean startsFrame(byte[] data, int length) {
+		int i = 0;
+		while (i<length && (data[i]&0xFF)<=' ') i++;
+		return length-i>=3 && data[i]=='@' && data[i+1]=='@' && data[i+2]=='@';
+	}
+
+	//-------------------------------------------------------------------
+	private static boolean endsFrame(byte[] data, int length) {
+		int end = trimmedEnd(data, length);
+		return end>=3 && data[end-1]=='@' && data[end-2]=='@' && data[end-3]=='@';
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @return TRUE if the datagram is a frame of its own
+	 */
+	static boolean isComplete(byte[] data, int length) {
+		int end = trimmedEnd(data, length);
+		return end>=6 && startsFrame(data, end) && endsFrame(data, end);
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @return TRUE if no frame is incomplete
+	 */
+	boolean isEmpty() {
+		return empty;
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @return TRUE if the sender has started a frame that is incomplete
+	 */
+	boolean hasPartial(InetSocketAddress sender) {
+		return current.containsKey(sender);
+	}
+
+	//-------------------------------------------------------------------
+	private static String answerId(byte[] data, int length) {
+		outer:
+		for (int i=0; i<=length-ANSWERID.length; i++) {
+			for (int j=0; j<ANSWERID.length; j++) {
+				if (data[i+j]!=ANSWERID[j]) continue outer;
+			}
+			int from = i+ANSWERID.length;
+			int to = from;
+			while (to<length && data[to]!='|' && data[to]!='@') to++;
+			return new String(data, from, to-from, StandardCharsets.ISO_8859_1);
+		}
+		return null;
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Add a received datagram
+	 * @return The complete frame, if this datagram completed one - or the
+	 *    datagram itself, if it is complete. NULL if more parts are needed
+	 *    or the datagram doesn't belong to any frame.
+	 */
+	synchronized byte[] add(InetSocketAddress sender, byte[] data, int length) {
+		if (isComplete(data, length))
+			return Arrays.copyOf(data, length);
+
+		Partial partial;
+		if (startsFrame(data, length)) {
+			Key key = new Key(sender, answerId(data, length));
+			drop(partials.get(key));
+			partial = new Partial(key, System.nanoTime(), Math.min(2*length, maxMessageSize));
+			partials.put(key, partial);
+			current.put(sender, key);
+		} else {
+			Key key = current.get(sender);
+			partial = (key!=null)?partials.get(key):null;
+			if (partial==null) {
+				logger.log(Level.DEBUG, "Dropped continuation without start from {0}", sender);
+				return null;
+			}
+		}
+
+		if (partial.length+length>maxMessageSize) {
+			logger.log(Level.WARNING, "Dropped message from {0} exceeding {1} bytes", sender, maxMessageSize);
+			drop(partial);
+			return null;
+		}
+		partial.append(data, length);
+		memory += length;
+
+		if (partial.length>length && endsFrame(data, length)) {
+			drop(partial);
+			return Arrays.copyOf(partial.data, partial.length);
+		}
+		// Make room by dropping the oldest incomplete frames
+		Iterator<Partial> it = partials.values().iterator();
+		while (memory>maxMemory && it.hasNext()) {
+			Partial oldest = it.next();
+			logger.log(Level.WARNING, "Dropped incomplete message from {0} - out of memory", oldest.key.sender());
+			it.remove();
+			forget(oldest);
+		}
+		empty = partials.isEmpty();
+		return null;
+	}
+
+	//-------------------------------------------------------------------
+	private void drop(Partial partial) {
+		if (partial==null)
+			return;
+		partials.remove(partial.key, partial);
+		forget(partial);
+	}
+
+	//-------------------------------------------------------------------
+	private void forget(Partial partial) {
+		memory -= partial.length;
+		current.remove(partial.key.sender(), partial.key);
+		empty = partials.isEmpty();
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Drop incomplete frames that have not been completed in time
+	 * @return Number of dropped frames
+	 */
+	synchronized int expire() {
+		long now = System.nanoTime();
+		int count = 0;
+		Iterator<Partial> it = partials.values().iterator();
+		while (it.hasNext()) {
+			Partial partial = it.next();
+			if (now-partial.started<timeout)
+				break;
+			logger.log(Level.DEBUG, "Dropped incomplete message from {0}", partial.key.sender());
+			it.remove();
+			forget(partial);
+			count++;
+		}
+		return count;
+	}
+
+	//-------------------------------------------------------------------
+	synchronized int getBufferedBytes() {
+		return memory;
+	}
+
+}
@@ -0,0 +1,177 @@
+package org.prelle.intermud2;
+
+import java.io.IOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Receive loop for non-blocking datagram channels. All datagrams queued on
+ * a channel are drained on every wakeup into one reused direct buffer.
+ */
+class I2Receiver implements Runnable {
+
+	private final static Logger logger = System.getLogger("intermud2");
+
+	/**
+	 * Called on the receiving thread for every datagram. The buffer is only
+	 * valid until the method returns.
+	 */
+	interface PacketHandler {
+		public void received(ByteBuffer packet, InetSocketAddress sender);
+	}
+
+	private final Selector selector;
+	private final ByteBuffer buffer;
+	private volatile boolean running;
+	private Thread thread;
+
+	//-------------------------------------------------------------------
+	I2Receiver(int bufferSize) throws IOException {
+		this.selector = Selector.open();
+		this.buffer   = ByteBuffer.allocateDirect(bufferSize);
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Open a non-blocking channel bound to the given UDP port
+	 * @param receiveBufferSize Value for SO_RCVBUF or 0 for the OS default
+	 */
+	static DatagramChannel openChannel(int port, int receiveBufferSize) throws IOException {
+		DatagramChannel channel = DatagramChannel.open();
+		if (receiveBufferSize>0) {
+			channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+		}
+		channel.bind(new InetSocketAddress(port));
+		channel.configureBlocking(false);
+		return channel;
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Open several non-blocking channels bound to the same UDP port using
+	 * SO_REUSEPORT, so that the kernel distributes incoming datagrams
+	 * among them. Datagrams from one sender always arrive on the same
+	 * channel. If the OS doesn't support SO_REUSEPORT, only one channel
+	 * is opened.
+	 * @param count Number of channels wanted
+	 * @param receiveBufferSize Value for SO_RCVBUF or 0 for the OS default
+	 */
+	static List<DatagramChannel> openChannels(int port, int receiveBufferSize, int count) throws IOException {
+		if (count<=1)
+			return List.of(openChannel(port, receiveBufferSize));
+		List<DatagramChannel> ret = new ArrayList<>(count);
+		try {
+			for (int i=0; i<count; i++) {
+				DatagramChannel channel = DatagramChannel.open();
+				ret.add(channel);
+				if (!channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+					logger.log(Level.WARNING, "SO_REUSEPORT not supported - using a single receiver");
+					channel.close();
+					return List.of(openChannel(port, receiveBufferSize));
+				}
+				channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+				if (receiveBufferSize>0) {
+					channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+				}
+				channel.bind(new InetSocketAddress(port));
+				channel.configureBlocking(false);
+				// All others need the same port, even if it was chosen by the OS
+				port = ((InetSocketAddress)channel.getLocalAddress()).getPort();
+			}
+		} catch (IOException e) {
+			for (DatagramChannel channel : ret)
+				channel.close();
+			throw e;
+		}
+		return ret;
+	}
+
+	//-------------------------------------------------------------------
+	void register(DatagramChannel channel, PacketHandler handler) throws IOException {
+		channel.register(selector, SelectionKey.OP_READ, handler);
+		selector.wakeup();
+	}
+
+	//-------------------------------------------------------------------
+	void start(String threadName) {
+		running = true;
+		thread = new Thread(this, threadName);
+		thread.start();
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Stop receiving. Returns when the receiving thread has finished, or
+	 * the timeout passed.
+	 */
+	void stop(Duration timeout) {
+		running = false;
+		try {
+			selector.close();
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Error closing selector", e);
+		}
+		if (thread!=null && thread!=Thread.currentThread()) {
+			try {
+				thread.join(timeout.toMillis());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		while (running) {
+			try {
+				selector.select();
+				Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while (it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+					if (key.isValid() && key.isReadable()) {
+						drain((DatagramChannel)key.channel(), (PacketHandler)key.attachment());
+					}
+				}
+			} catch (ClosedSelectorException e) {
+				break;
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Error reading from socket",e);
+			}
+		}
+		logger.log(Level.DEBUG, "Receive loop stopped");
+	}
+
+	//-------------------------------------------------------------------
+	private void drain(DatagramChannel channel, PacketHandler handler) throws IOException {
+		while (true) {
+			buffer.clear();
+			SocketAddress from = channel.receive(buffer);
+			if (from==null)
+				return;
+			buffer.flip();
+			try {
+				handler.received(buffer, (InetSocketAddress)from);
+			} catch (Exception e) {
+				logger.log(Level.WARNING, "Error handling packet from "+from,e);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,179 @@
+package org.prelle.intermud2;
+
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Resolves hostnames on a bounded thread pool and caches successful and
+ * failed lookups for a configurable time. IP address literals are
+ * converted without any lookup.
+ */
+class I2Resolver {
+
+	private final static Logger logger = System.getLogger("intermud2");
+
+	/** Purge expired entries when the cache grows beyond this */
+	private final static int PURGE_SIZE = 10000;
+
+	private static class Entry {
+		final CompletableFuture<InetAddress> future;
+		/** Only valid once the future is completed */
+		volatile long expires;
+		Entry(CompletableFuture<InetAddress> future) {
+			this.future = future;
+		}
+		boolean isExpired(long now) {
+			return future.isDone() && now-expires>0;
+		}
+	}
+
+	private final ThreadPoolExecutor pool;
+	private final Map<String,Entry> cache = new ConcurrentHashMap<>();
+	private final long positiveTTL;
+	private final long negativeTTL;
+	private final I2Metrics metrics;
+
+	//-------------------------------------------------------------------
+	I2Resolver(I2Config config) {
+		this(config, I2Metrics.NONE);
+	}
+
+	//-------------------------------------------------------------------
+	I2Resolver(I2Config config, I2Metrics metrics) {
+		this.metrics = metrics;
+		positiveTTL = config.getDnsCacheTTL().toNanos();
+		negativeTTL = config.getDnsNegativeTTL().toNanos();
+		AtomicInteger count = new AtomicInteger();
+		pool = new ThreadPoolExecutor(config.getDnsThreads(), config.getDnsThreads(), 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(config.getDnsQueueSize()),
+				r -> {
+					Thread t = new Thread(r, "Intermud IM2 DNS "+count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				});
+		pool.allowCoreThreadTimeOut(true);
+	}
+
+	//-------------------------------------------------------------------
+	void stop() {
+		pool.shutdownNow();
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Resolve a hostname or IP address literal. Literals and cached
+	 * results return an already completed future.
+	 */
+	CompletableFuture<InetAddress> resolve(String host) {
+		if (host==null || host.isBlank())
+			return CompletableFuture.failedFuture(new UnknownHostException("No host given"));
+		InetAddress literal = parseLiteral(host);
+		if (literal!=null)
+			return CompletableFuture.completedFuture(literal);
+
+		long now = System.nanoTime();
+		Entry entry = cache.get(host);
+		if (entry!=null && !entry.isExpired(now))
+			return entry.future;
+
+		Entry created = new Entry(new CompletableFuture<>());
+		entry = (entry==null)?cache.putIfAbsent(host, created):(cache.replace(host, entry, created)?null:cache.get(host));
+		if (entry!=null)
+			return entry.future;
+
+		if (cache.size()>PURGE_SIZE) {
+			cache.values().removeIf(e -> e.isExpired(now));
+		}
+		lookup(host, created);
+		return created.future;
+	}
+
+	//-------------------------------------------------------------------
+	private void lookup(String host, Entry entry) {
+		try {
+			pool.execute( () -> {
+				long before = System.nanoTime();
+				try {
+					InetAddress addr = InetAddress.getByName(host);
+					entry.expires = System.nanoTime()+positiveTTL;
+					metrics.dnsLookup(System.nanoTime()-before);
+					entry.future.complete(addr);
+				} catch (UnknownHostException e) {
+					logger.log(Level.DEBUG, "Cannot resolve {0}", host);
+					entry.expires = System.nanoTime()+negativeTTL;
+					metrics.dnsLookup(System.nanoTime()-before);
+					entry.future.completeExceptionally(e);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			logger.log(Level.WARNING, "Too many pending DNS lookups - cannot resolve {0}", host);
+			cache.remove(host, entry);
+			entry.future.completeExceptionally(e);
+		}
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @return The address, if it is a literal or has already been
+	 *    resolved - otherwise NULL
+	 */
+	InetAddress getIfResolved(String host) {
+		CompletableFuture<InetAddress> future = resolve(host);
+		return (future.isDone() && !future.isCompletedExceptionally())?future.join():null;
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Convert IP address literals without any lookup.
+	 * @return The address or NULL, if the string is not an IP address
+	 */
+	static InetAddress parseLiteral(String host) {
+		if (host==null || host.isEmpty())
+			return null;
+		try {
+			if (host.indexOf(':')>=0) {
+				// getByName() doesn't look up IPv6 literals - but anything
+				// else, like "host:port", might be
+				for (int i=0; i<host.length(); i++) {
+					char c = host.charAt(i);
+					boolean hex = (c>='0' && c<='9') || (c>='a' && c<='f') || (c>='A' && c<='F');
+					if (!hex && c!=':' && c!='.')
+						return null;
+				}
+				return InetAddress.getByName(host);
+			}
+			byte[] addr = new byte[4];
+			int part = 0;
+			int value = -1;
+			for (int i=0; i<host.length(); i++) {
+				char c = host.charAt(i);
+				if (c>='0' && c<='9') {
+					value = ((value<0)?0:value*10) + (c-'0');
+					if (value>255) return null;
+				} else if (c=='.' && value>=0 && part<3) {
+					addr[part++] = (byte)value;
+					value = -1;
+				} else {
+					return null;
+				}
+			}
+			if (part!=3 || value<0)
+				return null;
+			addr[3] = (byte)value;
+			return InetAddress.getByAddress(addr);
+		} catch (UnknownHostException e) {
+			return null;
+		}
+	}
+
+}
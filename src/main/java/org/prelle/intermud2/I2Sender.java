@@ -0,0 +1,196 @@
+package org.prelle.intermud2;
+
+import java.io.IOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous outbound pipeline. Messages are queued and sent by a
+ * dedicated thread, paced by a global token bucket. Each destination
+ * has an additional token bucket; messages exceeding it are rejected
+ * when queued.
+ */
+class I2Sender implements Runnable {
+
+	private final static Logger logger = System.getLogger("intermud2");
+
+	/** Remove idle destination buckets above this number of destinations */
+	private final static int MAX_PEER_BUCKETS = 4096;
+
+	/**
+	 * @param onSent Informed right before the datagram is sent - may be NULL
+	 */
+	private static record Outgoing(DatagramChannel channel, InetSocketAddress target, byte[] data, LongConsumer onSent) {}
+
+	private final BlockingQueue<Outgoing> queue;
+	private final ByteBuffer buffer;
+	private final TokenBucket globalBucket;
+	private final Map<InetSocketAddress,TokenBucket> peerBuckets = new ConcurrentHashMap<>();
+	private final double peerRate;
+	private final int peerBurst;
+	private final LongAdder dropped = new LongAdder();
+	private volatile boolean running;
+	private Thread thread;
+
+	//-------------------------------------------------------------------
+	I2Sender(I2Config config, int maxPacketSize) {
+		// A rate of 0 would make the sending thread wait forever
+		if (!(config.getSendRate()>0) || config.getSendBurst()<1)
+			throw new IllegalArgumentException("sendRate and sendBurst must be positive");
+		if (!(config.getPeerSendRate()>0) || config.getPeerSendBurst()<1)
+			throw new IllegalArgumentException("peerSendRate and peerSendBurst must be positive");
+		this.queue        = new ArrayBlockingQueue<>(config.getSendQueueSize());
+		this.buffer       = ByteBuffer.allocateDirect(maxPacketSize);
+		this.globalBucket = new TokenBucket(config.getSendRate(), config.getSendBurst());
+		this.peerRate     = config.getPeerSendRate();
+		this.peerBurst    = config.getPeerSendBurst();
+	}
+
+	//-------------------------------------------------------------------
+	void start(String threadName) {
+		running = true;
+		thread = new Thread(this, threadName);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	//-------------------------------------------------------------------
+	void stop() {
+		running = false;
+		if (thread!=null)
+			thread.interrupt();
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Stop after the queued messages have been sent, or the timeout
+	 * passed. Returns when the sending thread has finished.
+	 */
+	void stop(Duration timeout) {
+		long deadline = System.nanoTime()+timeout.toNanos();
+		while (!queue.isEmpty() && System.nanoTime()-deadline<0) {
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(5));
+		}
+		stop();
+		if (thread!=null) {
+			try {
+				thread.join(TimeUnit.NANOSECONDS.toMillis(Math.max(0, deadline-System.nanoTime()))+100);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Queue a message. The zero terminator is added when sending.
+	 * @param from      Channel of the identity sending the message
+	 * @param limitPeer Apply the per destination rate limit
+	 */
+	SendStatus send(DatagramChannel from, InetSocketAddress target, byte[] data, boolean limitPeer) {
+		return send(from, target, data, limitPeer, null);
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @param onSent Called on the sending thread with System.nanoTime()
+	 *    when the message leaves, after waiting for the rate limit - may
+	 *    be NULL
+	 */
+	SendStatus send(DatagramChannel from, InetSocketAddress target, byte[] data, boolean limitPeer, LongConsumer onSent) {
+		if (!running)
+			return SendStatus.CLOSED;
+		if (data.length+1>buffer.capacity()) {
+			logger.log(Level.WARNING, "Dropped message of {0} bytes to {1} - too large", data.length, target);
+			dropped.increment();
+			return SendStatus.TOO_LARGE;
+		}
+		if (limitPeer && !getPeerBucket(target).tryAcquire()) {
+			dropped.increment();
+			return SendStatus.RATE_LIMITED;
+		}
+		if (!queue.offer(new Outgoing(from, target, data, onSent))) {
+			dropped.increment();
+			return SendStatus.QUEUE_FULL;
+		}
+		return SendStatus.QUEUED;
+	}
+
+	//-------------------------------------------------------------------
+	private TokenBucket getPeerBucket(InetSocketAddress target) {
+		TokenBucket bucket = peerBuckets.get(target);
+		if (bucket==null) {
+			if (peerBuckets.size()>=MAX_PEER_BUCKETS) {
+				peerBuckets.values().removeIf(TokenBucket::isFull);
+			}
+			bucket = peerBuckets.computeIfAbsent(target, k -> new TokenBucket(peerRate, peerBurst));
+		}
+		return bucket;
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		while (running) {
+			Outgoing out;
+			try {
+				out = queue.take();
+			} catch (InterruptedException e) {
+				break;
+			}
+			// Wait for the global rate limit
+			long wait;
+			while ((wait=globalBucket.nanosUntilAvailable())>0) {
+				LockSupport.parkNanos(wait);
+			}
+			globalBucket.tryAcquire();
+
+			buffer.clear();
+			buffer.put(out.data).put((byte)0).flip();
+			if (out.onSent!=null) {
+				// Before sending, so an answer can never arrive earlier
+				out.onSent.accept(System.nanoTime());
+			}
+			try {
+				if (out.channel.send(buffer, out.target)==0) {
+					// Socket buffer full - try once more
+					LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+					if (out.channel.send(buffer, out.target)==0) {
+						dropped.increment();
+						continue;
+					}
+				}
+			} catch (IOException e) {
+				dropped.increment();
+				logger.log(Level.WARNING, "Failed sending to "+out.target+": "+e);
+			}
+		}
+		logger.log(Level.DEBUG, "Sender stopped");
+	}
+
+	//-------------------------------------------------------------------
+	int getQueueDepth() {
+		return queue.size();
+	}
+
+	//-------------------------------------------------------------------
+	long getDropped() {
+		return dropped.sum();
+	}
+
+}
@@ -0,0 +1,255 @@
+package org.prelle.intermud2;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+import org.prelle.intermud2.I2Metrics.Rejection;
+import org.prelle.intermud2.Intermud2Contact.ContactState;
+import org.prelle.intermud2.LatencyHistogram.Summary;
+
+/**
+ * Built-in metrics of the daemon. Recording only increments counters and
+ * histogram buckets; everything else is computed when read via JMX.
+ */
+public class I2Statistics implements I2Metrics, I2StatisticsMXBean {
+
+	private final static I2Command[] COMMANDS = I2Command.values();
+
+	private final LongAdder[] received = adders();
+	private final LongAdder[] sent     = adders();
+	private final LongAdder[] dropped  = adders();
+	private final LongAdder parseFailures = new LongAdder();
+	private final LongAdder[] rejected = new LongAdder[Rejection.values().length];
+	private final LongAdder mudlistEntries    = new LongAdder();
+	private final LongAdder mudlistDuplicates = new LongAdder();
+	private final LatencyHistogram[] handlerTimes = new LatencyHistogram[COMMANDS.length];
+	private final LatencyHistogram pingRoundTrip = new LatencyHistogram();
+	private final LatencyHistogram hostListSave  = new LatencyHistogram();
+	private final LatencyHistogram dnsLookup     = new LatencyHistogram();
+
+	private final ContactRegistry registry;
+	private final IntSupplier sendQueueDepth;
+	private final IntSupplier dispatchQueueDepth;
+	private final LongSupplier dispatchDropped;
+
+	//-------------------------------------------------------------------
+	/**
+	 * @param dispatchQueueDepth Received messages waiting for a handler
+	 * @param dispatchDropped    Received messages dropped because the
+	 *    handler queue was full
+	 */
+	I2Statistics(ContactRegistry registry, IntSupplier sendQueueDepth, IntSupplier dispatchQueueDepth, LongSupplier dispatchDropped) {
+		this.registry = registry;
+		this.sendQueueDepth     = sendQueueDepth;
+		this.dispatchQueueDepth = dispatchQueueDepth;
+		this.dispatchDropped    = dispatchDropped;
+		for (int i=0; i<handlerTimes.length; i++)
+			handlerTimes[i] = new LatencyHistogram();
+		for (int i=0; i<rejected.length; i++)
+			rejected[i] = new LongAdder();
+	}
+
+	//-------------------------------------------------------------------
+	private static LongAdder[] adders() {
+		LongAdder[] ret = new LongAdder[COMMANDS.length];
+		for (int i=0; i<ret.length; i++)
+			ret[i] = new LongAdder();
+		return ret;
+	}
+
+	//-------------------------------------------------------------------
+	private static long sum(LongAdder[] adders) {
+		long ret = 0;
+		for (LongAdder adder : adders)
+			ret += adder.sum();
+		return ret;
+	}
+
+	//-------------------------------------------------------------------
+	private static Map<String,Long> byCommand(LongAdder[] adders) {
+		Map<String,Long> ret = new LinkedHashMap<>();
+		for (I2Command cmd : COMMANDS) {
+			long value = adders[cmd.ordinal()].sum();
+			if (value>0)
+				ret.put(cmd.name(), value);
+		}
+		return ret;
+	}
+
+	//-------------------------------------------------------------------
+	// I2Metrics
+	//-------------------------------------------------------------------
+
+	@Override
+	public void packetReceived(I2Command command) {
+		received[command.ordinal()].increment();
+	}
+
+	@Override
+	public void packetSent(I2Command command) {
+		sent[command.ordinal()].increment();
+	}
+
+	@Override
+	public void packetDropped(I2Command command) {
+		dropped[command.ordinal()].increment();
+	}
+
+	@Override
+	public void parseFailure() {
+		parseFailures.increment();
+	}
+
+	@Override
+	public void packetRejected(Rejection reason) {
+		rejected[reason.ordinal()].increment();
+	}
+
+	@Override
+	public void handlerTime(I2Command command, long nanos) {
+		handlerTimes[command.ordinal()].record(nanos);
+	}
+
+	@Override
+	public void pingRoundTrip(long nanos) {
+		pingRoundTrip.record(nanos);
+	}
+
+	@Override
+	public void hostListSaved(long nanos) {
+		hostListSave.record(nanos);
+	}
+
+	@Override
+	public void dnsLookup(long nanos) {
+		dnsLookup.record(nanos);
+	}
+
+	@Override
+	public void mudlistEntry(boolean duplicate) {
+		mudlistEntries.increment();
+		if (duplicate)
+			mudlistDuplicates.increment();
+	}
+
+	//-------------------------------------------------------------------
+	// I2StatisticsMXBean
+	//-------------------------------------------------------------------
+
+	@Override
+	public long getPacketsReceived() {
+		return sum(received);
+	}
+
+	@Override
+	public long getPacketsSent() {
+		return sum(sent);
+	}
+
+	@Override
+	public long getPacketsDropped() {
+		return sum(dropped);
+	}
+
+	@Override
+	public long getParseFailures() {
+		return parseFailures.sum();
+	}
+
+	@Override
+	public Map<String,Long> getPacketsRejected() {
+		Map<String,Long> ret = new LinkedHashMap<>();
+		for (Rejection reason : Rejection.values())
+			ret.put(reason.name(), rejected[reason.ordinal()].sum());
+		return ret;
+	}
+
+	@Override
+	public Map<String,Long> getPacketsReceivedByCommand() {
+		return byCommand(received);
+	}
+
+	@Override
+	public Map<String,Long> getPacketsSentByCommand() {
+		return byCommand(sent);
+	}
+
+	@Override
+	public Map<String,Long> getPacketsDroppedByCommand() {
+		return byCommand(dropped);
+	}
+
+	@Override
+	public Map<String,Summary> getHandlerTimes() {
+		Map<String,Summary> ret = new LinkedHashMap<>();
+		for (I2Command cmd : COMMANDS) {
+			LatencyHistogram histo = handlerTimes[cmd.ordinal()];
+			if (histo.getCount()>0)
+				ret.put(cmd.name(), histo.getSummary());
+		}
+		return ret;
+	}
+
+	@Override
+	public Map<String,Integer> getContactsByState() {
+		Map<ContactState,Integer> counts = new EnumMap<>(ContactState.class);
+		for (ContactState state : ContactState.values())
+			counts.put(state, 0);
+		for (Intermud2Contact contact : registry.getAll())
+			counts.merge(contact.getState(), 1, Integer::sum);
+		Map<String,Integer> ret = new LinkedHashMap<>();
+		counts.forEach( (state,count) -> ret.put(state.name(), count));
+		return ret;
+	}
+
+	@Override
+	public int getSendQueueDepth() {
+		return sendQueueDepth.getAsInt();
+	}
+
+	@Override
+	public int getDispatchQueueDepth() {
+		return dispatchQueueDepth.getAsInt();
+	}
+
+	@Override
+	public long getDispatchDropped() {
+		return dispatchDropped.getAsLong();
+	}
+
+	@Override
+	public Summary getPingRoundTrip() {
+		return pingRoundTrip.getSummary();
+	}
+
+	@Override
+	public Summary getHostListSaveTime() {
+		return hostListSave.getSummary();
+	}
+
+	@Override
+	public Summary getDnsLookupTime() {
+		return dnsLookup.getSummary();
+	}
+
+	@Override
+	public long getMudlistEntries() {
+		return mudlistEntries.sum();
+	}
+
+	@Override
+	public long getMudlistDuplicates() {
+		return mudlistDuplicates.sum();
+	}
+
+	@Override
+	public double getMudlistDuplicateRate() {
+		long entries = mudlistEntries.sum();
+		return (entries==0)?0:mudlistDuplicates.sum()/(double)entries;
+	}
+
+}
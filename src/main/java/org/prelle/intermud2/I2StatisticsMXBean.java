@@ -0,0 +1,56 @@
+package org.prelle.intermud2;
+
+import java.util.Map;
+
+import org.prelle.intermud2.LatencyHistogram.Summary;
+
+/**
+ * Statistics of an Intermud 2 daemon, as exposed by JMX
+ */
+public interface I2StatisticsMXBean {
+
+	public long getPacketsReceived();
+
+	public long getPacketsSent();
+
+	public long getPacketsDropped();
+
+	public long getParseFailures();
+
+	/** Packets dropped before parsing, by reason */
+	public Map<String,Long> getPacketsRejected();
+
+	public Map<String,Long> getPacketsReceivedByCommand();
+
+	public Map<String,Long> getPacketsSentByCommand();
+
+	public Map<String,Long> getPacketsDroppedByCommand();
+
+	public Map<String,Summary> getHandlerTimes();
+
+	public Map<String,Integer> getContactsByState();
+
+	public int getSendQueueDepth();
+
+	/** Received messages waiting for a handler */
+	public int getDispatchQueueDepth();
+
+	/** Received messages dropped because the handler queue was full */
+	public long getDispatchDropped();
+
+	public Summary getPingRoundTrip();
+
+	public Summary getHostListSaveTime();
+
+	public Summary getDnsLookupTime();
+
+	/** Received mudlist_a entries, including duplicates */
+	public long getMudlistEntries();
+
+	/** Received mudlist_a entries that were skipped as duplicates */
+	public long getMudlistDuplicates();
+
+	/** Fraction of mudlist_a entries that were skipped, between 0 and 1 */
+	public double getMudlistDuplicateRate();
+
+}
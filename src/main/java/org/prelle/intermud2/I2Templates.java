@@ -0,0 +1,99 @@
+package org.prelle.intermud2;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pre-encoded outgoing messages for one identity.
+ */
+class I2Templates {
+
+	private final I2Identity identity;
+	private final MessageTemplate pingQuery;
+	private final MessageTemplate rwhoQuery;
+	private final MessageTemplate mudlistQuery;
+	private final MessageTemplate pingAnswer;
+	private final MessageTemplate startup;
+	private final Map<String,MessageTemplate> supportedQueries = new ConcurrentHashMap<>();
+
+	//-------------------------------------------------------------------
+	I2Templates(I2Config config) {
+		this(config.getIdentity());
+	}
+
+	//-------------------------------------------------------------------
+	I2Templates(I2Identity identity) {
+		this.identity = identity;
+		pingQuery    = query("ping_q", "");
+		rwhoQuery    = query("rwho_q", "||ASKWIZ:taranion");
+		mudlistQuery = query("mudlist_q", "");
+		pingAnswer = infoMessage("ping_a");
+		startup    = infoMessage("startup");
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Query with a numeric ANSWERID, that is echoed in the answer
+	 */
+	private MessageTemplate query(String command, String extra) {
+		return MessageTemplate.builder()
+				.literal("@@@").literal(command)
+				.literal("||NAME:").literal(identity.getName())
+				.literal("||PORTUDP:").literal(identity.getI2Port())
+				.literal(extra)
+				.literal("||ANSWERID:").slot()
+				.literal("@@@")
+				.build();
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Message containing information about ourselves. Variable fields
+	 * are the current time and the number of users.
+	 */
+	private MessageTemplate infoMessage(String command) {
+		return MessageTemplate.builder()
+				.literal("@@@").literal(command)
+				.literal("||NAME:").literal(identity.getName())
+				.literal("||VERSION:0.0.1")
+				.literal("||MUBLIB:GraphicMUD")
+				.literal("||HOST:").literal(identity.getHostname())
+				.literal("||PORT:").literal(identity.getPort())
+				.literal("||PORTUDP:").literal(identity.getI2Port())
+				.literal("||Time:").slot()
+				.literal("||Users:").slot()
+				.literal("@@@")
+				.build();
+	}
+
+	//-------------------------------------------------------------------
+	byte[] pingQuery(long answerId) {
+		return pingQuery.render(answerId);
+	}
+
+	//-------------------------------------------------------------------
+	byte[] rwhoQuery(long answerId) {
+		return rwhoQuery.render(answerId);
+	}
+
+	//-------------------------------------------------------------------
+	byte[] supportedQuery(String command, long answerId) {
+		return supportedQueries.computeIfAbsent(command, cmd -> query("supported_q", "||CMD:"+cmd)).render(answerId);
+	}
+
+	//-------------------------------------------------------------------
+	byte[] mudlistQuery(long answerId) {
+		return mudlistQuery.render(answerId);
+	}
+
+	//-------------------------------------------------------------------
+	byte[] pingAnswer(int users) {
+		return pingAnswer.render(System.currentTimeMillis(), users);
+	}
+
+	//-------------------------------------------------------------------
+	byte[] startup(int users) {
+		return startup.render(System.currentTimeMillis(), users);
+	}
+
+}
@@ -1,10 +1,13 @@
 package org.prelle.intermud2;
 
 import java.net.InetAddress;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.ToString;
@@ -49,6 +52,8 @@ public class Intermud2Contact implements Comparable<Intermud2Contact> {
 	
 	private String name;
 	private String mudName;
+	/** Hostname as reported by the MUD itself */
+	private String host;
 	private String location;
 	private String encoding;
 	private String driver;
@@ -57,7 +62,24 @@ public class Intermud2Contact implements Comparable<Intermud2Contact> {
 	private String mudGroup;
 	private LocalDateTime lastContact = LocalDateTime.MIN;
 	private ContactState state = ContactState.UNKNOWN;
-	private List<Service> services = new ArrayList<>();
+	private List<Service> services = new CopyOnWriteArrayList<>();
+	/** When this contact is probed next */
+	private Instant nextProbe;
+	/** Current time between two probes, including backoff */
+	private Duration probeInterval;
+
+	// Liveness - all times from System.nanoTime()
+	@Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE)
+	private long pingSent;
+	@Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE)
+	private boolean pingOutstanding;
+	@Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE)
+	private long smoothedRtt = -1;
+	@Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE)
+	private long rttVariance;
+	/** Probes in a row that have not been answered */
+	@Setter(AccessLevel.NONE)
+	private int failedProbes;
 
 
 	//-------------------------------------------------------------------
@@ -80,6 +102,82 @@ public class Intermud2Contact implements Comparable<Intermud2Contact> {
 		return name.compareTo(other.name);
 	}
 	
+	//-------------------------------------------------------------------
+	/**
+	 * Remember that a ping has been sent. A previous ping that hasn't been
+	 * answered within the timeout counts as failed.
+	 * @param now     Current System.nanoTime()
+	 * @param timeout Time after which a ping is considered lost
+	 */
+	public synchronized void probeSent(long now, Duration timeout) {
+		expireProbe(now, timeout);
+		if (pingOutstanding) {
+			// Keep waiting for the first ping
+			return;
+		}
+		pingSent = now;
+		pingOutstanding = true;
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Count an outstanding ping that hasn't been answered within the
+	 * timeout as failed, without sending a new one.
+	 * @param now     Current System.nanoTime()
+	 * @param timeout Time after which a ping is considered lost
+	 */
+	public synchronized void expireProbe(long now, Duration timeout) {
+		if (pingOutstanding && now-pingSent>=timeout.toNanos()) {
+			failedProbes++;
+			pingOutstanding = false;
+		}
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Remember that a ping has been answered and update the round trip
+	 * time the same way TCP does (RFC 6298).
+	 * @param now Current System.nanoTime()
+	 */
+	public synchronized long probeAnswered(long now) {
+		failedProbes = 0;
+		if (!pingOutstanding)
+			return -1;
+		pingOutstanding = false;
+		long rtt = now-pingSent;
+		if (smoothedRtt<0) {
+			smoothedRtt = rtt;
+			rttVariance = rtt/2;
+		} else {
+			rttVariance = (3*rttVariance + Math.abs(smoothedRtt-rtt))/4;
+			smoothedRtt = (7*smoothedRtt + rtt)/8;
+		}
+		return rtt;
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @return Smoothed round trip time of pings, or NULL if no ping has
+	 *    been answered yet
+	 */
+	public synchronized Duration getSmoothedRtt() {
+		return (smoothedRtt<0)?null:Duration.ofNanos(smoothedRtt);
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @return Variance of the round trip time, or NULL if no ping has
+	 *    been answered yet
+	 */
+	public synchronized Duration getRttVariance() {
+		return (smoothedRtt<0)?null:Duration.ofNanos(rttVariance);
+	}
+
+	//-------------------------------------------------------------------
+	public synchronized int getFailedProbes() {
+		return failedProbes;
+	}
+
 	//-------------------------------------------------------------------
 	public int getPort() {
 		if (port==0) return im2Port-4;
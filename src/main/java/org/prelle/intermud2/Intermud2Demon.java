@@ -2,48 +2,63 @@ package org.prelle.intermud2;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.PrintWriter;
 import java.io.Reader;
 import java.lang.System.Logger;
 import java.lang.System.Logger.Level;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
-import java.net.UnknownHostException;
-import java.nio.charset.Charset;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.time.DateTimeException;
 import java.time.Duration;
-import java.time.Instant;
 import java.time.LocalDateTime;
-import java.time.LocalTime;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Random;
+import java.util.Optional;
 import java.util.StringTokenizer;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
 
+import javax.management.JMException;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import org.prelle.intermud2.I2Metrics.Rejection;
 import org.prelle.intermud2.Intermud2Contact.ContactState;
 import org.prelle.intermud2.Intermud2Contact.Service;
 
 /**
  * 
  */
-public class Intermud2Demon {
+public class Intermud2Demon implements AutoCloseable {
 
 	private final static Logger logger = System.getLogger("intermud2");
 	
-	public static record I2Message(String command, Map<String,String> parameter, InetAddress sender, int port) {
+	/**
+	 * @param recipient Identity the message was sent to - NULL for the
+	 *    configured one
+	 */
+	public static record I2Message(String command, Map<String,String> parameter, InetAddress sender, int port, I2Identity recipient) {
+
+		public I2Message(String command, Map<String,String> parameter, InetAddress sender, int port) {
+			this(command, parameter, sender, port, null);
+		}
 
 		public int getUdpPort() { return Integer.parseInt(parameter.get("PORTUDP")); }
 		public String getName() { return parameter.get("NAME"); }
@@ -53,40 +68,82 @@ public class Intermud2Demon {
 		public String getMUDLib() { return parameter.get("MUDLIB"); }
 		public String getVersion() { return parameter.get("VERSION"); }
 		public String getLocation() { return parameter.get("LOCATION"); }
+		public String getHost() { return parameter.get("HOST"); }
 		public String getEncoding() { return parameter.get("ENCODING"); }
 	}
 
-    private final static int    PACKAGE_SIZE     = 4096;
+	/**
+	 * Lifecycle of a daemon, in the order the stages are reached
+	 */
+	public static enum Stage {
+		/** Created, but not started yet */
+		CREATED,
+		/** I2 ports are bound - messages are received and answered */
+		LISTENING,
+		/** Persisted contacts and the host list have been read */
+		CONTACTS_LOADED,
+		/** All known MUDs and the bootmaster have been contacted */
+		READY,
+		STOPPING,
+		STOPPED,
+		/** Starting failed - the daemon needs to be stopped */
+		FAILED
+	}
    
-	private Thread listenThread;
-	private Timer timer;
+	private volatile Stage stage = Stage.CREATED;
+	private final Map<Stage,CompletableFuture<Intermud2Demon>> stages = new EnumMap<>(Stage.class);
+	/** Guarded by this */
+	private CompletableFuture<Intermud2Demon> startup;
+	/** Runs the startup stages - waited for when stopping */
+	private ExecutorService startThread;
+	/** Written by the startup thread */
+	private final List<I2Receiver> receivers = new CopyOnWriteArrayList<>();
+	private volatile I2Dispatcher dispatcher;
+	private volatile I2Sender sender;
+	private ContactScheduler scheduler;
+	private HostListStore store;
 	
 	private I2Config config;
+	private I2Templates templates;
+	private MudlistCache mudlistCache;
+	private MudlistDedup mudlistDedup;
+	private I2Resolver resolver;
+	private I2Statistics statistics;
+	private I2Correlator correlator;
+	private RWhoCache rwhoCache;
+	private I2Reassembler reassembler;
+	private I2Admission admission;
+	private I2Metrics metrics;
+	/** Names of host list entries whose hostname is still being resolved */
+	private final Set<String> pendingContacts = ConcurrentHashMap.newKeySet();
 
-    private static DatagramSocket imud;
-    private I2Listener callback;
+    /**
+     * A MUD served by this daemon
+     * @param channels All bound to the identities I2 port - the first one
+     *    is used for sending
+     */
+    private static record Hosted(I2Identity identity, I2Templates templates, List<DatagramChannel> channels) {}
+    /** The configured identity first, followed by additional ones */
+    private final List<Hosted> hosted = new CopyOnWriteArrayList<>();
+    private I2EventBus events;
     
-    private Map<String,Intermud2Contact> knownContacts = new HashMap<>();
+    private final ContactRegistry knownContacts = new ContactRegistry();
 	 
 	//-------------------------------------------------------------------
+	/**
+	 * Create and start a daemon. Returns as soon as the daemon listens -
+	 * contacts are loaded and announced in the background.
+	 * @throws IOException if the I2 port cannot be bound
+	 */
 	public Intermud2Demon(I2Config config, I2Listener callback) throws IOException {
-		this.config = config;
-		this.callback = callback;
-		
-		timer = new Timer();
-		// Write list of known hosts every minute
-		timer.scheduleAtFixedRate(new TimerTask() {
-			public void run() { 
-				saveHostList();
-				pingUnknown();
-				}}, 60000, 60000);
-		timer.scheduleAtFixedRate(new TimerTask() {
-			public void run() { 
-				refreshOnline();
-				}}, 120000, 300000);
-		
-		imud = new DatagramSocket(config.getI2Port());
-		start();
+		this(config, callback, true);
+		try {
+			whenStage(Stage.LISTENING).join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException)e.getCause();
+			throw e;
+		}
 	}
  
 	//-------------------------------------------------------------------
@@ -95,237 +152,639 @@ public class Intermud2Demon {
 	}
 
 	//-------------------------------------------------------------------
-	private void start() throws UnknownHostException {
-		if (listenThread!=null && listenThread.isAlive()) {
-			listenThread.interrupt();
+	private Intermud2Demon(I2Config config, I2Listener callback, boolean start) {
+		this.config = config;
+		for (Stage s : Stage.values())
+			stages.put(s, new CompletableFuture<>());
+		stages.get(Stage.CREATED).complete(this);
+		this.events = new I2EventBus(config.getEventExecutor());
+		if (callback!=null) {
+			events.addListener(callback);
 		}
+		this.templates = new I2Templates(config);
+		this.mudlistCache = new MudlistCache(knownContacts, config.getMudlistPacketSize());
+		this.mudlistDedup = new MudlistDedup(config.getMudlistDedupSize(), config.getMudlistDedupTTL());
+		this.statistics = new I2Statistics(knownContacts,
+				() -> (sender!=null)?sender.getQueueDepth():0,
+				() -> (dispatcher!=null)?dispatcher.getQueueDepth():0,
+				() -> (dispatcher!=null)?dispatcher.getDropped():0);
+		this.metrics = I2Metrics.both(statistics, config.getMetrics());
+		this.resolver = new I2Resolver(config, metrics);
+		this.correlator = new I2Correlator(config.getQueryTimeout(), config.getAnswerCollectWindow());
+		this.rwhoCache = new RWhoCache(config.getRwhoCacheTTL());
+		this.admission = new I2Admission(config.getPeerReceiveRate(), config.getPeerReceiveBurst(), config.getMaxReceiveSources(), config.getAcceptedCommands());
+		this.reassembler = new I2Reassembler(config.getMaxMessageSize(), config.getReassemblyMemory(), config.getReassemblyTimeout());
+		this.store = new HostListStore(knownContacts, config);
 		
-		listenThread = new Thread( () -> run(), "Intermud IM2 UDP");
-		listenThread.start();
+		scheduler = new ContactScheduler(this::probe, this::getProbeInterval, config.getProbeJitter());
+		knownContacts.addListener(scheduler);
+		knownContacts.addListener(events);
+		knownContacts.addListener(rwhoCache);
+		if (start) {
+			startAsync();
+		}
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Create a daemon without starting it
+	 * @see #startAsync()
+	 */
+	public static Intermud2Demon create(I2Config config) {
+		return new Intermud2Demon(config, null, false);
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Create a daemon without starting it
+	 * @param callback Informed about new and changed MUDs
+	 * @see #startAsync()
+	 */
+	public static Intermud2Demon create(I2Config config, I2Listener callback) {
+		return new Intermud2Demon(config, callback, false);
+	}
+
+	//-------------------------------------------------------------------
+	private void registerMBean() {
+		try {
+			ObjectName name = getMBeanName();
+			ManagementFactory.getPlatformMBeanServer().registerMBean(statistics, name);
+		} catch (JMException e) {
+			logger.log(Level.WARNING, "Cannot register statistics as MBean: "+e);
+		}
+	}
+
+	//-------------------------------------------------------------------
+	private void unregisterMBean() {
+		try {
+			ObjectName name = getMBeanName();
+			if (ManagementFactory.getPlatformMBeanServer().isRegistered(name))
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		} catch (JMException e) {
+			logger.log(Level.WARNING, "Cannot unregister statistics MBean: "+e);
+		}
+	}
+
+	//-------------------------------------------------------------------
+	private ObjectName getMBeanName() throws MalformedObjectNameException {
+		return new ObjectName("org.prelle.intermud2:type=Intermud2Demon,name="+ObjectName.quote(config.getName()));
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Be informed about new, changed and removed MUDs
+	 */
+	public void addEventListener(I2EventListener listener) {
+		events.addListener(listener);
+	}
+
+	//-------------------------------------------------------------------
+	public void removeEventListener(I2EventListener listener) {
+		events.removeListener(listener);
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @return Counters and histograms of this daemon
+	 */
+	public I2Statistics getStatistics() {
+		return statistics;
+	}
+
+	//-------------------------------------------------------------------
+	public Stage getStage() {
+		return stage;
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @return Completes once the given stage has been reached - or
+	 *    exceptionally, if starting failed before
+	 */
+	public CompletableFuture<Intermud2Demon> whenStage(Stage stage) {
+		return stages.get(stage).copy();
+	}
+
+	//-------------------------------------------------------------------
+	private boolean isStopping() {
+		return stage==Stage.STOPPING || stage==Stage.STOPPED;
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Called by the startup stages before acquiring resources
+	 * @throws CancellationException if the daemon is being stopped
+	 */
+	private synchronized void checkNotStopped() {
+		if (isStopping())
+			throw new CancellationException("Daemon stopped");
+	}
+
+	//-------------------------------------------------------------------
+	private void enter(Stage next) {
+		synchronized (this) {
+			checkNotStopped();
+			stage = next;
+		}
+		logger.log(Level.DEBUG, "Daemon {0} is {1}", config.getName(), next);
+		stages.get(next).complete(this);
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Start the daemon in the background: bind the I2 ports, load the
+	 * persisted contacts and the host list, announce ourselves and
+	 * contact the bootmaster. Calling it again returns the same future,
+	 * calling it after {@link #stop()} a failed one.
+	 * @return Completes when the daemon is READY, or exceptionally if
+	 *    starting failed
+	 */
+	public synchronized CompletableFuture<Intermud2Demon> startAsync() {
+		if (isStopping())
+			return CompletableFuture.failedFuture(new IllegalStateException("Daemon is "+stage));
+		if (startup!=null)
+			return startup.copy();
+		if (stage!=Stage.CREATED)
+			return CompletableFuture.failedFuture(new IllegalStateException("Daemon is "+stage));
+		startThread = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "Intermud IM2 Startup");
+			t.setDaemon(true);
+			return t;
+		});
+		startup = CompletableFuture.runAsync(this::listen, startThread)
+			.thenRunAsync(this::loadContactsAndHostList, startThread)
+			.thenRunAsync(this::announce, startThread)
+			.thenCompose(v -> contactBootmaster())
+			.thenApply(v -> {
+				enter(Stage.READY);
+				return this;
+			})
+			.whenComplete( (demon, error) -> {
+				startThread.shutdown();
+				if (error!=null) {
+					Throwable cause = (error instanceof CompletionException && error.getCause()!=null)?error.getCause():error;
+					for (Stage s : Stage.values()) {
+						if (s.compareTo(Stage.READY)<=0)
+							stages.get(s).completeExceptionally(cause);
+					}
+					synchronized (this) {
+						// Failures caused by stopping are expected
+						if (isStopping() || cause instanceof CancellationException)
+							return;
+						stage = Stage.FAILED;
+					}
+					logger.log(Level.ERROR, "Failed starting Intermud 2 daemon", cause);
+					stages.get(Stage.FAILED).complete(this);
+				}
+			});
+		return startup.copy();
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * First stage: bind the sockets and start all threads
+	 */
+	private void listen() {
+		List<I2Identity> identities = new ArrayList<>();
+		identities.add(config.getIdentity());
+		identities.addAll(config.getIdentities());
+		try {
+			for (I2Identity identity : identities) {
+				checkNotStopped();
+				List<DatagramChannel> channels = I2Receiver.openChannels(identity.getI2Port(), config.getReceiveBufferSize(), config.getReceiveThreads());
+				hosted.add(new Hosted(identity, hosted.isEmpty()?templates:new I2Templates(identity), channels));
+			}
+		} catch (IOException e) {
+			closeChannels();
+			throw new CompletionException(e);
+		}
+		checkNotStopped();
+		if (config.isJmx()) {
+			registerMBean();
+		}
+
+		dispatcher = new I2Dispatcher(config.getDispatchThreads(), config.getDispatchQueueSize(), this::handleIncoming);
+		dispatcher.start("Intermud IM2 Handler");
+		sender = new I2Sender(config, config.getMaxPacketSize());
+		sender.start("Intermud IM2 Sender");
+		int count = hosted.get(0).channels.size();
+		for (int i=0; i<count; i++) {
+			// One byte more than allowed, to detect datagrams that are too large
+			I2Receiver receiver;
+			try {
+				receiver = new I2Receiver(config.getMaxPacketSize()+1);
+				receivers.add(receiver);
+				// Every receiving thread needs its own buffer
+				byte[] scratch = new byte[config.getMaxPacketSize()+1];
+				// Each thread serves one socket of every identity
+				for (Hosted host : hosted) {
+					for (int j=i; j<host.channels.size(); j+=count) {
+						receiver.register(host.channels.get(j), (packet, from) -> received(packet, from, scratch, host.identity));
+					}
+				}
+			} catch (IOException e) {
+				throw new CompletionException(e);
+			}
+		}
+		for (Hosted host : hosted) {
+			logger.log(Level.INFO, "Start listening on "+host.identity.getI2Port()+" for "+host.identity.getName()+" with "+host.channels.size()+" socket(s)");
+		}
+		checkNotStopped();
+		for (int i=0; i<receivers.size(); i++) {
+			receivers.get(i).start((receivers.size()==1)?"Intermud IM2 UDP":("Intermud IM2 UDP-"+i));
+		}
 
-		// Read list and ping all
+		// Write list of known hosts every minute
+		scheduler.scheduleAtFixedRate("saveHostList", this::saveHostList, Duration.ofMinutes(1), Duration.ofMinutes(1));
+		scheduler.scheduleAtFixedRate("deliverEvents", events::flush, config.getEventCoalesceWindow(), config.getEventCoalesceWindow());
+		scheduler.scheduleAtFixedRate("expireQueries", correlator::expire, Duration.ofSeconds(1), Duration.ofSeconds(1));
+		scheduler.scheduleAtFixedRate("expireFragments", reassembler::expire, Duration.ofSeconds(1), Duration.ofSeconds(1));
+		scheduler.scheduleAtFixedRate("expireRWho", rwhoCache::expire, Duration.ofMinutes(1), Duration.ofMinutes(1));
+		enter(Stage.LISTENING);
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Second stage: restore the persisted contacts and read the host list
+	 */
+	private void loadContactsAndHostList() {
+		loadContacts();
+		knownContacts.addListener(store);
 		try {
 			readHostList();
-			announceToAllHosts();
-			pingAllHosts();
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			logger.log(Level.ERROR, "Cannot read host list "+config.getMudList(), e);
 		}
-		
-		// Read information about Bootmaster
-		InetAddress bootmasterAddr = config.getBootmasterIP();
+		enter(Stage.CONTACTS_LOADED);
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Third stage: tell all known hosts about us
+	 */
+	private void announce() {
+		announceToAllHosts();
+		pingAllHosts();
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Last stage: resolve the bootmaster and ping it. Failures are only
+	 * logged - other MUDs may still be known from the host list.
+	 */
+	private CompletableFuture<Void> contactBootmaster() {
 		int bootmasterPort = config.getBootmasterPort();
-		
-		bootstrap(bootmasterAddr, bootmasterPort);
+		return resolver.resolve(config.getBootmasterHost()).handle( (bootmasterAddr, error) -> {
+			if (error!=null) {
+				logger.log(Level.ERROR, "Cannot resolve bootmaster "+config.getBootmasterHost()+": "+error);
+			} else {
+				bootstrap(bootmasterAddr, bootmasterPort);
+			}
+			return null;
+		});
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Stop all threads, save the contacts and close the sockets. Messages
+	 * already queued are sent, if possible within the shutdown timeout.
+	 */
+	public void stop() {
+		ExecutorService starting;
+		synchronized (this) {
+			if (isStopping())
+				return;
+			stage = Stage.STOPPING;
+			starting = startThread;
+			if (startup!=null)
+				startup.cancel(false);
+		}
+		stages.get(Stage.STOPPING).complete(this);
+		logger.log(Level.INFO, "Stopping Intermud 2 daemon {0}", config.getName());
+		if (starting!=null) {
+			// The running stage notices the stop at its next check
+			starting.shutdown();
+			try {
+				if (!starting.awaitTermination(30, TimeUnit.SECONDS))
+					logger.log(Level.WARNING, "Startup of {0} did not finish", config.getName());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		for (Stage s : Stage.values()) {
+			if (s.compareTo(Stage.READY)<=0)
+				stages.get(s).completeExceptionally(new CancellationException("Daemon stopped"));
+		}
+		scheduler.stop();
+		receivers.forEach(receiver -> receiver.stop(config.getShutdownTimeout()));
+		if (dispatcher!=null)
+			dispatcher.stop(config.getShutdownTimeout());
+		if (sender!=null)
+			sender.stop(config.getShutdownTimeout());
+		closeChannels();
+		correlator.cancelAll();
+		resolver.stop();
+		try {
+			store.stop();
+		} catch (IOException e) {
+			logger.log(Level.ERROR, "Failed saving host list", e);
+		}
+		events.flush();
+		events.stop();
+		if (config.isJmx())
+			unregisterMBean();
+		synchronized (this) {
+			stage = Stage.STOPPED;
+		}
+		stages.get(Stage.STOPPED).complete(this);
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @see #stop()
+	 */
+	@Override
+	public void close() {
+		stop();
+	}
+
+	//-------------------------------------------------------------------
+	private void closeChannels() {
+		for (Hosted host : hosted) {
+			for (DatagramChannel channel : host.channels) {
+				try {
+					channel.close();
+				} catch (IOException e) {
+					logger.log(Level.WARNING, "Error closing socket", e);
+				}
+			}
+		}
 	}
 	
 	//-------------------------------------------------------------------
 	public void bootstrap(InetAddress addr, int port) {
 		// Ping host
-		String line = "@@@ping_q"
-			+"||NAME:"+config.getName()
-			+"||PORTUDP:"+config.getI2Port()
-			+"@@@";
-		logger.log(Level.INFO, "Send: "+line);
-		sendReady(addr, port, line);
+		logger.log(Level.INFO, "Send ping_q to bootmaster "+addr+" "+port);
+		sendReady(addr, port, templates.pingQuery(correlator.nextId()));
 	}
 	
 	//-------------------------------------------------------------------
 	private void sendSupportedQuery(Intermud2Contact contact, String command) {
-		// Ping host
-		String line = "@@@supported_q"
-			+"||NAME:"+config.getName()
-			+"||PORTUDP:"+config.getI2Port()
-			+"||ANSWERID:taranion"
-			+"||CMD:"+command
-			+"@@@";
-		sendReady(contact.getIpAddress(), contact.getIm2Port(), line);
+		supportedAsync(contact, command);
 	}
 	
 	//-------------------------------------------------------------------
 	public void ping(Intermud2Contact contact) {
+		pingAsync(contact);
+	}
+	
+	//-------------------------------------------------------------------
+	private static I2Correlator.Key answerKey(Intermud2Contact contact, I2Command answer, String detail) {
+		return new I2Correlator.Key(contact.getIpAddress(), contact.getIm2Port(), answer, detail);
+	}
+	
+	//-------------------------------------------------------------------
+	/**
+	 * Ping a MUD
+	 * @return Completes with the updated contact, once the MUD answered
+	 */
+	public CompletableFuture<Intermud2Contact> pingAsync(Intermud2Contact contact) {
 		if (contact.getIm2Port()==0) {
 			logger.log(Level.WARNING, "Cannot ping MUD with UDP port 0: "+contact.getName()+" at "+contact.getIpAddress());
-			return;
+			return CompletableFuture.failedFuture(new IllegalArgumentException("No UDP port"));
 		}
-		// Ping host
-		String line = "@@@ping_q"
-			+"||NAME:"+config.getName()
-			+"||PORTUDP:"+config.getI2Port()
-			+"@@@";
-		sendReady(contact.getIpAddress(), contact.getIm2Port(), line);
+		return correlator.expect(answerKey(contact, I2Command.PING_A, null), answerId -> {
+			// Time spent waiting in the send queue is no round trip time
+			return sendReady(contact, templates.pingQuery(answerId), sentAt -> contact.probeSent(sentAt, config.getPingTimeout()));
+		}).thenApply(answer -> contact);
 	}
 	
 	//-------------------------------------------------------------------
-	private void requestWho(Intermud2Contact contact) {
-		// Ping host
-		String line = "@@@rwho_q"
-			+"||NAME:"+config.getName()
-			+"||PORTUDP:"+config.getI2Port()
-			+"||ASKWIZ:taranion"
-			+"@@@";
-		sendReady(contact.getIpAddress(), contact.getIm2Port(), line);
+	/**
+	 * Ask a MUD who is online. Answers younger than rwhoCacheTTL are
+	 * reused, and concurrent calls for the same MUD share one query.
+	 * @return Completes with the answer of the MUD
+	 */
+	public CompletableFuture<RWhoAnswer> rwhoAsync(Intermud2Contact contact) {
+		return rwhoCache.request(contact, c ->
+			correlator.expect(answerKey(c, I2Command.RWHO_A, null), answerId -> sendReady(c, templates.rwhoQuery(answerId)))
+				.thenApply(answer -> answer.parameter().get("RWHO")));
+	}
+	
+	//-------------------------------------------------------------------
+	/**
+	 * @return The cached rwho answer of a MUD, if it is younger than
+	 *    rwhoCacheTTL
+	 */
+	public Optional<RWhoAnswer> getCachedRWho(Intermud2Contact contact) {
+		return Optional.ofNullable(rwhoCache.get(contact));
+	}
+	
+	//-------------------------------------------------------------------
+	/**
+	 * Ask a MUD whether it supports an Intermud command
+	 * @param command Command like "rwho_q"
+	 */
+	public CompletableFuture<Boolean> supportedAsync(Intermud2Contact contact, String command) {
+		return correlator.expect(answerKey(contact, I2Command.SUPPORTED_A, command), answerId -> sendReady(contact, templates.supportedQuery(command, answerId)))
+				.thenApply(answer -> answer.parameter().containsKey("SUPPORTED"));
+	}
+	
+	//-------------------------------------------------------------------
+	/**
+	 * Ask a MUD for the MUDs it knows. The answer may consist of several
+	 * packets, which are collected until no more arrive.
+	 * @return Completes with one map of parameters per listed MUD
+	 */
+	public CompletableFuture<List<Map<String,String>>> mudlistAsync(Intermud2Contact contact) {
+		return correlator.expectAll(answerKey(contact, I2Command.MUDLIST_A, null), answerId -> sendReady(contact, templates.mudlistQuery(answerId)))
+				.thenApply(answers -> {
+					List<Map<String,String>> ret = new ArrayList<>();
+					for (I2Message answer : answers) {
+						for (Entry<String,String> entry : answer.parameter().entrySet()) {
+							if (!entry.getKey().isEmpty() && Character.isDigit(entry.getKey().charAt(0)) && entry.getValue()!=null)
+								ret.add(asSubParameter(entry.getValue()));
+						}
+					}
+					return ret;
+				});
 	}
 	
 	//-------------------------------------------------------------------
 	public void bootstrap(List<Intermud2Contact> list) {
-		try {
-			for (Intermud2Contact server : list) {
-				sendStartupRequest(server);
-				queryMUDList(server);
-			}
-		} catch (UnknownHostException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+		for (Intermud2Contact server : list) {
+			sendStartupRequest(server);
+			queryMUDList(server);
 		}
 	}
 	
 	//-------------------------------------------------------------------
-	private void run() {
-		DatagramPacket dp;
-		byte[] buf = new byte[PACKAGE_SIZE];
-		logger.log(Level.INFO, "Start listening on "+imud.getLocalPort());
-		while (true) {
-			Arrays.fill(buf, (byte)0);
-		    dp = new DatagramPacket(buf, PACKAGE_SIZE);
-		    try {
-		    	imud.receive(dp);
-		    	String raw = new String(buf, 0, dp.getLength()).trim();
-		    	//logger.log(Level.INFO, "Received: "+dp.getLength()+" len = "+raw);
-		    	I2Message mess = parseMessage(dp.getData(), dp.getAddress(), dp.getPort());
-		    	handleIncoming(mess);
-		    } catch (Exception e) {
-				logger.log(Level.WARNING, "Error reading from socket",e);
-			}
-		    
-		    try {
-				Thread.sleep(10);
-			} catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
+	private void received(ByteBuffer packet, InetSocketAddress sender, byte[] scratch, I2Identity recipient) {
+		int length = packet.remaining();
+		if (length>config.getMaxPacketSize()) {
+			metrics.parseFailure();
+			logger.log(Level.DEBUG, "Dropped packet from {0} exceeding {1} bytes", sender, config.getMaxPacketSize());
+			return;
+		}
+		packet.get(scratch, 0, length);
+		//logger.log(Level.INFO, "Received: "+length+" bytes from "+sender);
+		boolean complete = I2Reassembler.isComplete(scratch, length);
+		// Only a datagram continuing a frame of the same sender has no header
+		boolean startOfFrame = complete || I2Reassembler.startsFrame(scratch, length) || !reassembler.hasPartial(sender);
+		Rejection rejection = admission.check(scratch, length, sender.getAddress(), startOfFrame);
+		if (rejection!=null) {
+			metrics.packetRejected(rejection);
+			logger.log(Level.TRACE, "Rejected packet from {0}: {1}", sender, rejection);
+			return;
+		}
+		byte[] data = scratch;
+		if (!complete) {
+			// Part of a message split across datagrams - complete ones
+			// never belong to another frame
+			data = reassembler.add(sender, scratch, length);
+			if (data==null)
+				return;
+			length = data.length;
+		}
+		I2Message mess;
+		try {
+			mess = I2Parser.parse(data, 0, length, sender.getAddress(), sender.getPort(), recipient);
+		} catch (MalformedFrameException e) {
+			metrics.parseFailure();
+			logger.log(Level.DEBUG, "Dropped packet from {0}: {1}", sender, e.getMessage());
+			return;
+		}
+		I2Command command = I2Command.of(mess.command);
+		metrics.packetReceived(command);
+		if (!dispatcher.dispatch(mess)) {
+			metrics.packetDropped(command);
 		}
 	}
 
 	//-------------------------------------------------------------------
-	private String generateInfoString() {
-		String line = "||NAME:"+config.getName()
-				+"||VERSION:0.0.1"
-				+"||MUBLIB:GraphicMUD"
-//				+"||HOSTADDRESS:"+InetAddress.getByName("prelle.selfhost.eu").getHostAddress()
-				+"||HOST:"+config.getHostname()
-				+"||PORT:"+config.getPort()
-				+"||PORTUDP:"+config.getI2Port()
-				+"||Time:"+System.currentTimeMillis()
-				+"||Users:0";
-		return line;
+	private void handleIncoming(I2Message mess) {
+		long before = System.nanoTime();
+		try {
+			handle(mess);
+			correlator.answered(mess);
+		} finally {
+			metrics.handlerTime(I2Command.of(mess.command), System.nanoTime()-before);
+		}
 	}
 
 	//-------------------------------------------------------------------
-	private void handleIncoming(I2Message mess) {
+	private void handle(I2Message mess) {
 		switch (mess.command) {
 		case "ping_a" -> handlePingAnswer(mess);
 		case "ping_q" -> handlePingQuery(mess);
 		case "mudlist_a" -> handleMudlistAnswer(mess);
 		case "mudlist_q" -> handleMudListQuery(mess);
 		case "rwho_a"    -> handleRWhoAnswer(mess);
+		case "supported_a" -> handleSupportedAnswer(mess);
 		default -> {
-			logger.log(Level.INFO, "Unhandled message ''{0}''", mess.command);
-			System.exit(1);
+			logger.log(Level.INFO, "Unhandled message ''{0}'' from {1}", mess.command, mess.sender);
+			metrics.packetDropped(I2Command.of(mess.command));
 			}
 		}
 	}
 
 	//-------------------------------------------------------------------
 	private Intermud2Contact updateContact(I2Message mess) {
-		String key = mess.sender.getHostAddress()+"/"+mess.getUdpPort();
-		Intermud2Contact contact = knownContacts.getOrDefault(key, new Intermud2Contact(mess.sender, mess.getUdpPort()));
-		
-		contact.setName(mess.getName());
-		contact.setMudName(mess.getMUDName());
-		contact.setDriver(mess.getDriver());
-		contact.setEncoding(mess.getEncoding());
-		contact.setLocation(mess.getLocation());
-		contact.setMudGroup(mess.getMUDGroup());
-		contact.setMudLib(mess.getMUDLib());
-		contact.setVersion(mess.getVersion());
-		//logger.log(Level.DEBUG, "Set known contact "+key+" to "+contact);
-		knownContacts.put(key, contact);
+		Intermud2Contact contact = knownContacts.getOrCreate(mess.sender, mess.getUdpPort());
 		
-		if (callback!=null) {
-			callback.newOrUpdatedMUDStats(contact);
-		}
+		knownContacts.update(contact, c -> {
+			c.setName(mess.getName());
+			c.setHost(mess.getHost());
+			c.setMudName(mess.getMUDName());
+			c.setDriver(mess.getDriver());
+			c.setEncoding(mess.getEncoding());
+			c.setLocation(mess.getLocation());
+			c.setMudGroup(mess.getMUDGroup());
+			c.setMudLib(mess.getMUDLib());
+			c.setVersion(mess.getVersion());
+		});
+		//logger.log(Level.DEBUG, "Set known contact "+contact);
 		
 		return contact;
 	}
 
 	//-------------------------------------------------------------------
-	private Intermud2Contact getByName(String name) {
-		for (Intermud2Contact tmp : knownContacts.values()) {
-			if (tmp.getName().equals(name))
-				return tmp;
+	/**
+	 * @param applied Called once the entry has been applied - never if
+	 *    resolving the address or updating the contact failed
+	 */
+	private void updateContact(Map<String,String> map, Runnable applied) {
+		// Ignore ourselves - including the other identities we serve,
+		// which are therefore not in our mudlist_a answers either
+		if (isHosted(map.get("NAME"))) {
+			applied.run();
+			return;
 		}
-		return null;
-	}
-
-	//-------------------------------------------------------------------
-	private Intermud2Contact getByIPOnly(InetAddress addr) {
-		for (Intermud2Contact tmp : knownContacts.values()) {
-			if (tmp.getIpAddress().equals(addr))
-				return tmp;
+		
+		String hostAddr = map.get("HOSTADDRESS");
+		InetAddress inet = resolver.getIfResolved(hostAddr);
+		if (inet!=null) {
+			if (updateContact(map, inet))
+				applied.run();
+		} else {
+			// Continue when the address is known
+			resolver.resolve(hostAddr).thenAccept(resolved -> {
+				if (updateContact(map, resolved))
+					applied.run();
+			});
 		}
-		return null;
 	}
 
 	//-------------------------------------------------------------------
-	private void updateContact(Map<String,String> map) {
-		// Ignore ourselves
-		if (config.getName().equalsIgnoreCase( map.get("NAME")) )
-			return;
-		
+	/**
+	 * @return TRUE if the entry has been processed - updated or ignored.
+	 *    FALSE if it could not be processed.
+	 */
+	private boolean updateContact(Map<String,String> map, InetAddress inet) {
 		try {
-			String hostAddr = map.get("HOSTADDRESS");
-			InetAddress inet = InetAddress.getByName(hostAddr);
+			String hostAddr = inet.getHostAddress();
 			int portUDP = Integer.parseInt(map.containsKey("PORTUDP")?map.get("PORTUDP"):map.get("UDPPORT"));
 			
-			String key = hostAddr+"/"+portUDP;
-			Intermud2Contact contact = knownContacts.get(key);
+			Intermud2Contact contact = knownContacts.get(inet, portUDP);
+			boolean move = false;
 			if (contact==null) {
 				// Not found with this IP+Port Try using name
-				contact = getByName(map.get("NAME"));
+				contact = knownContacts.getByName(map.get("NAME"));
 				if (contact!=null) {
 					if (contact.getState()==ContactState.ONLINE || contact.getState()==ContactState.SCANNED) {
 						// existing contact is online - ignore this one
-						return;
+						return true;
 					} else {
 						// Existing contact may need updating
 						logger.log(Level.WARNING, "Update contact "+contact+" with "+hostAddr+" "+portUDP);
-						contact.setIpAddress(inet);
-						contact.setIm2Port(portUDP);
+						move = true;
 					}
 				} else {
 					// Create new contact
-					contact = new Intermud2Contact(inet, portUDP);
-					logger.log(Level.DEBUG, "Create new contact "+key+" to "+contact);
-					knownContacts.put(key, contact);
+					contact = knownContacts.getOrCreate(inet, portUDP);
+					logger.log(Level.DEBUG, "Create new contact "+hostAddr+"/"+portUDP+" to "+contact);
 				}
 			}
 			
-			contact.setName   (map.get("NAME"));
-			contact.setMudName(map.get("MUDNAME"));
-			//contact.setGamePort
-			contact.setDriver (map.get("DRIVER"));
-			contact.setMudLib (map.get("MUDLIB"));
-			
-			if (callback!=null) {
-				callback.newOrUpdatedMUDStats(contact);
-			}
+			boolean changeAddress = move;
+			knownContacts.update(contact, c -> {
+				if (changeAddress) {
+					c.setIpAddress(inet);
+					c.setIm2Port(portUDP);
+				}
+				c.setName   (map.get("NAME"));
+				c.setHost   (map.get("HOST"));
+				c.setMudName(map.get("MUDNAME"));
+				//c.setGamePort
+				c.setDriver (map.get("DRIVER"));
+				c.setMudLib (map.get("MUDLIB"));
+			});
+			return true;
 		} catch (Exception e) {
 			logger.log(Level.ERROR, "Error updating contact with parsed:");
 			map.entrySet().forEach(entry -> logger.log(Level.ERROR, "  "+entry.getKey()+"\t= "+entry.getValue()));
 			logger.log(Level.ERROR, "Error was ",e);
-			System.exit(1);
+			return false;
 		}
 	}
 
@@ -333,72 +792,74 @@ public class Intermud2Demon {
 	private void handlePingAnswer(I2Message mess) {
 		logger.log(Level.TRACE, "Received answer for ping");
 		Intermud2Contact contact = updateContact(mess);
+		long rtt = contact.probeAnswered(System.nanoTime());
+		if (rtt>=0) {
+			metrics.pingRoundTrip(rtt);
+		}
 		contact.setLastContact(LocalDateTime.now());
 		if (contact.getState()==ContactState.OFFLINE || contact.getState()==ContactState.UNKNOWN) {
 			logger.log(Level.INFO, "MUD ''{0}'' is online", mess.getName());
-			contact.setState(ContactState.ONLINE);
+			setReachable(contact, ContactState.ONLINE);
 		}
 		if (!contact.getServices().contains(Service.PING)) {
 			contact.getServices().add(Service.PING);
 		}
+		knownContacts.touch(contact);
 		
 		// and ask for a MUD list
-		String line = "@@@mudlist_q"
-			+"||NAME:"+config.getName()
-			+"||PORTUDP:"+config.getI2Port()
-			+"||ANSWERID:"+(new Random()).nextInt(100)
-			+"@@@";
-		sendReady(mess.sender, mess.getUdpPort(), line);
+		sendReady(mess.sender, mess.getUdpPort(), templates.mudlistQuery(correlator.nextId()));
 	}
 
 	//-------------------------------------------------------------------
 	private void handlePingQuery(I2Message mess) {
 		logger.log(Level.DEBUG, "We have been pinged by {0} from {1}", mess.parameter.get("NAME"), mess.sender.getHostAddress());
 		// Answer 
-		String line = "@@@ping_a"
-				+generateInfoString()
-				+"@@@";
-		sendReady(mess.sender(), mess.getUdpPort(), line);
+		Hosted host = getHosted(mess);
+		sendReady(host, mess.sender(), mess.getUdpPort(), host.templates.pingAnswer(0));
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Mark a contact as answering. A MUD that has been offline is probed
+	 * at the regular interval again, instead of its backoff.
+	 */
+	private void setReachable(Intermud2Contact contact, ContactState state) {
+		ContactState before = contact.getState();
+		if (knownContacts.setState(contact, state) && (before==ContactState.OFFLINE || before==ContactState.UNKNOWN))
+			scheduler.reschedule(contact);
 	}
 
 	//-------------------------------------------------------------------
 	private void handleMudlistAnswer(I2Message mess) {
 		logger.log(Level.TRACE, "Received answer for mudlist");
+		Intermud2Contact contact = null;
 		if (mess.parameter.containsKey("PORTUDP")) {
-			String key = mess.sender.getHostAddress()+"/"+mess.getUdpPort();
-			Intermud2Contact contact = knownContacts.getOrDefault(key, new Intermud2Contact(mess.sender, mess.getUdpPort()));
+			contact = knownContacts.get(mess.sender, mess.getUdpPort());
+		} else if (mess.parameter.containsKey("NAME")) {
+			contact = knownContacts.getByName(mess.parameter.get("NAME"));
+		}
+		if (contact!=null) {
 			contact.setLastContact(LocalDateTime.now());
-			contact.setState(ContactState.SCANNED);
+			setReachable(contact, ContactState.SCANNED);
 			if (!contact.getServices().contains(Service.MUDLIST)) {
 				contact.getServices().add(Service.MUDLIST);
 			}
-		} else if (mess.parameter.containsKey("NAME")) {
-			Intermud2Contact contact = getByName(mess.parameter.get("NAME"));
-			if (contact!=null) {
-				contact.setLastContact(LocalDateTime.now());
-				contact.setState(ContactState.SCANNED);
-				if (!contact.getServices().contains(Service.MUDLIST)) {
-					contact.getServices().add(Service.MUDLIST);
-				}
-			}
-		} else if (mess.parameter.containsKey("NAME")) {
-			Intermud2Contact contact = getByIPOnly(mess.sender);
-			if (contact!=null) {
-				contact.setLastContact(LocalDateTime.now());
-				contact.setState(ContactState.SCANNED);
-				if (!contact.getServices().contains(Service.MUDLIST)) {
-					contact.getServices().add(Service.MUDLIST);
-				}
-			}
+			knownContacts.touch(contact);
 		}
 		
 		for (Entry<String,String> entry: mess.parameter.entrySet()) {
 			// If key is a number, value is a mudinfo
 			try {
 				int index = Integer.parseInt(entry.getKey());
+				// Most entries are the same in every answer
+				long fingerprint = MudlistDedup.fingerprint(entry.getValue());
+				boolean duplicate = mudlistDedup.isDuplicate(fingerprint);
+				metrics.mudlistEntry(duplicate);
+				if (duplicate)
+					continue;
 				Map<String,String> subParams = asSubParameter(entry.getValue());
 				//logger.log(Level.DEBUG, "Parsed index "+index+": "+subParams);
-				updateContact(subParams);
+				updateContact(subParams, () -> mudlistDedup.remember(fingerprint));
 			} catch (NumberFormatException e) {
 				logger.log(Level.DEBUG, "Extra parameter in mudlist_a from {0}: {1}={2}", mess.sender, entry.getKey(), entry.getValue());
 			}
@@ -408,67 +869,70 @@ public class Intermud2Demon {
 	//-------------------------------------------------------------------
 	private void handleRWhoAnswer(I2Message mess) {
 		logger.log(Level.DEBUG, "Received answer for rwho: "+mess);
+		Intermud2Contact contact = null;
 		if (mess.parameter.containsKey("PORTUDP")) {
-			String key = mess.sender.getHostAddress()+"/"+mess.getUdpPort();
-			Intermud2Contact contact = knownContacts.getOrDefault(key, new Intermud2Contact(mess.sender, mess.getUdpPort()));
-			contact.setLastContact(LocalDateTime.now());
-			if (!contact.getServices().contains(Service.RWHO)) {
-				contact.getServices().add(Service.RWHO);
-			}
+			contact = knownContacts.get(mess.sender, mess.getUdpPort());
 		} else if (mess.parameter.containsKey("NAME")) {
-			Intermud2Contact contact = getByName(mess.parameter.get("NAME"));
-			if (contact!=null) {
-				contact.setLastContact(LocalDateTime.now());
-				if (!contact.getServices().contains(Service.RWHO)) {
-					contact.getServices().add(Service.RWHO);
-				}
+			contact = knownContacts.getByName(mess.parameter.get("NAME"));
+		}
+		if (contact==null)
+			return;
+		contact.setLastContact(LocalDateTime.now());
+		if (!contact.getServices().contains(Service.RWHO)) {
+			contact.getServices().add(Service.RWHO);
+		}
+		knownContacts.touch(contact);
+		rwhoCache.answered(contact, mess.parameter.get("RWHO"));
+	}
+
+	//-------------------------------------------------------------------
+	private void handleSupportedAnswer(I2Message mess) {
+		String cmd = mess.parameter.get("CMD");
+		if (cmd==null || !mess.parameter.containsKey("PORTUDP") || !mess.parameter.containsKey("SUPPORTED"))
+			return;
+		Intermud2Contact contact = knownContacts.get(mess.sender, mess.getUdpPort());
+		if (contact==null)
+			return;
+		for (Service service : Service.values()) {
+			if (service.query.equals(cmd) && !contact.getServices().contains(service)) {
+				contact.getServices().add(service);
+				knownContacts.touch(contact);
 			}
 		}
-		
-		String pinkFishColorString = mess.parameter.get("RWHO");
-		System.out.println(PinkfishColor.decodetoANSI(pinkFishColorString));
-		System.out.println("\u001b[0m;");
 	}
 
 	//-------------------------------------------------------------------
 	private void handleMudListQuery(I2Message mess) {
-		logger.log(Level.WARNING, "TODO: We have been queried for a mudlist by {0} from {1}", mess.parameter.get("NAME"), mess.sender.getHostAddress());
-		int index=0;
-		List<String> lines = new ArrayList<>();
-		for (Intermud2Contact mud : new ArrayList<Intermud2Contact>(knownContacts.values())) {
-			if (mud.getState()==ContactState.UNKNOWN)
-				continue;
-			index++;
-			String perMud = String.format("%d:|NAME:%s|HOST:%s|HOSTADDRESS:%s|PORT:%d|PORTUDP:%d",
-					index,
-					mud.getName(),
-					mud.getIpAddress().getHostName(),
-					mud.getIpAddress().getHostAddress(),
-					mud.getPort(),
-					mud.getIm2Port()
-					);
-			lines.add(perMud);
-		}
-		
-		// Send 5 lines per answer
-		while (!lines.isEmpty()) {
-			List<String> sendNow = new ArrayList<>(lines.subList(0, Math.min(4, lines.size())));
-			lines.removeAll(sendNow);
-			String answer = "@@@mudlist_a||"+String.join("||", sendNow)+"@@@";
-			sendReady(mess.sender, mess.getUdpPort(), answer);;
+		logger.log(Level.DEBUG, "We have been queried for a mudlist by {0} from {1}", mess.parameter.get("NAME"), mess.sender.getHostAddress());
+		InetSocketAddress target = new InetSocketAddress(mess.sender, mess.getUdpPort());
+		DatagramChannel from = getHosted(mess).channels.get(0);
+		// The answer is much larger than the query, so the per destination
+		// limit keeps forged queries from flooding a victim
+		for (byte[] packet : mudlistCache.getPackets()) {
+			if (sender.send(from, target, packet, true).isQueued()) {
+				metrics.packetSent(I2Command.MUDLIST_A);
+			} else {
+				metrics.packetDropped(I2Command.MUDLIST_A);
+			}
 		}
 	}
 
 	//-------------------------------------------------------------------
-	private void sendStartupRequest(Intermud2Contact bootstrapServer) throws UnknownHostException {
-		String line = "@@@startup"
-				+generateInfoString()
-				+"@@@";
-			sendReady(bootstrapServer, line);
+	/**
+	 * Every identity introduces itself
+	 */
+	private void sendStartupRequest(Intermud2Contact bootstrapServer) {
+		for (Hosted host : hosted)
+			sendStartupRequest(host, bootstrapServer);
 	}
 
 	//-------------------------------------------------------------------
-	private void queryMUDList(Intermud2Contact bootstrapServer) throws UnknownHostException {
+	private void sendStartupRequest(Hosted host, Intermud2Contact bootstrapServer) {
+		sendReady(host, bootstrapServer.getIpAddress(), bootstrapServer.getIm2Port(), host.templates.startup(0));
+	}
+
+	//-------------------------------------------------------------------
+	private void queryMUDList(Intermud2Contact bootstrapServer) {
 //		String line1 = "U\tGraphicMUDDevel\t"+System.currentTimeMillis()/1000+"\t0\tmwp 1.2";
 //			logger.log(Level.INFO, "Send: "+line1);
 //			sendReady(bootstrapServer, line1);
@@ -482,59 +946,140 @@ public class Intermud2Demon {
 	}
 
     //-------------------------------------------------------------------------
-	private void sendReady(InetAddress host, int port, String msg) {
-		// Don't send to ourselves
-		if (host.equals(imud.getInetAddress()) )
-			return;
+	private SendStatus sendReady(InetAddress host, int port, String msg) {
     	logger.log(Level.TRACE, "SND: {0} to {1} {2}",msg, host,  port);
-    	
-    	msg+="\0";
-    	byte[] data = msg.getBytes(StandardCharsets.US_ASCII);
-    	try {
-		    DatagramPacket dp = new DatagramPacket(data, data.length, host, port);
-		    imud.send(dp);
-		} catch (IOException e) {
-			e.printStackTrace();
+    	return sendReady(host, port, msg.getBytes(StandardCharsets.US_ASCII));
+	}
+
+    //-------------------------------------------------------------------------
+	private SendStatus sendReady(InetAddress host, int port, byte[] msg) {
+		if (hosted.isEmpty())
+			return SendStatus.CLOSED;
+		return sendReady(hosted.get(0), host, port, msg);
+	}
+
+    //-------------------------------------------------------------------------
+	private SendStatus sendReady(Hosted from, InetAddress host, int port, byte[] msg) {
+		return sendReady(from, host, port, msg, null);
+	}
+
+    //-------------------------------------------------------------------------
+	/**
+	 * @param onSent Called with System.nanoTime() when the message is
+	 *    actually sent - may be NULL
+	 */
+	private SendStatus sendReady(Hosted from, InetAddress host, int port, byte[] msg, LongConsumer onSent) {
+		if (sender==null)
+			return SendStatus.CLOSED;
+		// Don't send to ourselves
+		if (host.isLoopbackAddress() || host.isAnyLocalAddress()) {
+			for (Hosted h : hosted) {
+				if (port==h.identity.getI2Port())
+					return SendStatus.IGNORED;
+			}
 		}
+    	
+    	SendStatus status = sender.send(from.channels.get(0), new InetSocketAddress(host, port), msg, true, onSent);
+    	if (status.isQueued()) {
+    		metrics.packetSent(I2Command.of(msg, msg.length));
+    	} else {
+    		metrics.packetDropped(I2Command.of(msg, msg.length));
+    		logger.log(Level.DEBUG, "Not sent to {0} {1}: {2}", host, port, status);
+    	}
+    	return status;
+	}
+
+    //-------------------------------------------------------------------------
+	private SendStatus sendReady(Intermud2Contact contact, byte[] msg) {
+		return sendReady(contact, msg, null);
 	}
-		    
 
     //-------------------------------------------------------------------------
-	private void sendReady(Intermud2Contact contact, String msg) {
-		sendReady(contact.getIpAddress(), contact.getIm2Port(), msg);
+	private SendStatus sendReady(Intermud2Contact contact, byte[] msg, LongConsumer onSent) {
+		if (hosted.isEmpty())
+			return SendStatus.CLOSED;
+		return sendReady(hosted.get(0), contact.getIpAddress(), contact.getIm2Port(), msg, onSent);
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @return The configured MUD, followed by additional identities
+	 *    served by this daemon
+	 */
+	public List<I2Identity> getIdentities() {
+		return hosted.stream().map(Hosted::identity).toList();
+	}
+
+	//-------------------------------------------------------------------
+	private Hosted getHosted(I2Message mess) {
+		for (Hosted host : hosted) {
+			if (host.identity==mess.recipient)
+				return host;
+		}
+		return hosted.get(0);
+	}
+
+	//-------------------------------------------------------------------
+	private boolean isHosted(String name) {
+		for (Hosted host : hosted) {
+			if (host.identity.getName().equalsIgnoreCase(name))
+				return true;
+		}
+		return false;
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @return All MUDs currently known
+	 */
+	public Collection<Intermud2Contact> getKnownContacts() {
+		return knownContacts.getAll();
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @return Number of outgoing messages waiting to be sent
+	 */
+	public int getSendQueueDepth() {
+		return (sender!=null)?sender.getQueueDepth():0;
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @return Number of outgoing messages dropped so far, because of
+	 *    rate limits, a full queue or socket errors
+	 */
+	public long getSendDropped() {
+		return (sender!=null)?sender.getDropped():0;
 	}
 
 	
 	//-------------------------------------------------------------------
 	private void saveHostList() {
-		if (config.getExportTo()==null) return;
+		if (!store.isDirty() && config.getExportTo()==null) return;
 		
-		logger.log(Level.DEBUG, "Write {0} hosts to {1}", knownContacts.size(), config.getExportTo().toAbsolutePath());
-		Instant before = Instant.now();
+		long before = System.nanoTime();
 		try {
-			PrintWriter out = new PrintWriter(new FileWriter(config.getExportTo().toFile()));
-			List<Intermud2Contact> toWrite = new ArrayList<>(knownContacts.values());
-			Collections.sort(toWrite);
-			toWrite = toWrite.stream().filter(co -> co.getState()!=ContactState.UNKNOWN).toList();
-			
-			toWrite.forEach(mud -> out.format("%20s \t|%15s \t|%d \t|%s|%s|%s | %s #%s\r\n",
-					mud.getName(),
-					mud.getIpAddress().getHostAddress(),
-					mud.getIm2Port(),
-					mud.getDriver(),
-					mud.getMudLib(),
-					mud.getVersion(),
-					mud.getState(),
-					mud.getServices()
-					));
-			out.flush();
-			out.close();
-			logger.log(Level.DEBUG, "Wrote {0} hosts to {1}", toWrite.size(), config.getExportTo().toAbsolutePath());
-			Duration dur = Duration.between(before, Instant.now());
-			logger.log(Level.DEBUG, "Took "+dur.toSeconds());
+			store.flush();
+			long took = System.nanoTime()-before;
+			metrics.hostListSaved(took);
+			logger.log(Level.DEBUG, "Saving host list took {0} ms", took/1000000);
+		} catch (IOException e) {
+			logger.log(Level.ERROR, "Failed saving host list", e);
+		}
+	}
+	
+	//-------------------------------------------------------------------
+	/**
+	 * Restore contacts persisted by a previous run
+	 */
+	private void loadContacts() {
+		try {
+			for (Intermud2Contact contact : store.load()) {
+				knownContacts.add(contact);
+			}
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			logger.log(Level.ERROR, "Failed loading persisted contacts", e);
 		}
 	}
 	
@@ -552,16 +1097,30 @@ public class Intermud2Demon {
 			try {
 				StringTokenizer tok = new StringTokenizer(line,"|");
 				String name = tok.nextToken().trim();
-				InetAddress inet = InetAddress.getByName(tok.nextToken().trim());
+				String host = tok.nextToken().trim();
 				int udpPort = Integer.parseInt(tok.nextToken().trim());
-				String key = inet.getHostAddress()+"/"+udpPort;
 				
-				if (!knownContacts.containsKey(key)) {
-					Intermud2Contact contact = new Intermud2Contact(inet, udpPort);
-					contact.setName(name);
-					contact.setState(ContactState.UNKNOWN);
-					knownContacts.put(key, contact);
-					logger.log(Level.INFO, "Add contact "+name);
+				// Already restored from the snapshot - no need for DNS
+				if (knownContacts.getByName(name)!=null) continue;
+				
+				CompletableFuture<InetAddress> future = resolver.resolve(host);
+				if (future.isDone()) {
+					addHostListEntry(name, future.join(), udpPort);
+				} else {
+					// Don't wait for DNS - contact is added and pinged later
+					pendingContacts.add(name);
+					future.whenComplete( (inet, error) -> {
+						pendingContacts.remove(name);
+						if (error!=null) {
+							logger.log(Level.WARNING, "Cannot resolve host of "+name+": "+host);
+							return;
+						}
+						Intermud2Contact contact = addHostListEntry(name, inet, udpPort);
+						if (contact!=null) {
+							sendStartupRequest(contact);
+							ping(contact);
+						}
+					});
 				}
 			} catch (Exception e) {
 				logger.log(Level.ERROR, "Error parsing line: "+line+"\n"+e);
@@ -569,9 +1128,33 @@ public class Intermud2Demon {
 		}
 	}
 	
+	//-------------------------------------------------------------------
+	/**
+	 * @return The new contact, or NULL if it was already known
+	 */
+	private Intermud2Contact addHostListEntry(String name, InetAddress inet, int udpPort) {
+		if (knownContacts.get(inet, udpPort)!=null)
+			return null;
+		Intermud2Contact contact = new Intermud2Contact(inet, udpPort);
+		contact.setName(name);
+		contact.setState(ContactState.UNKNOWN);
+		if (knownContacts.add(contact)!=contact)
+			return null;
+		logger.log(Level.DEBUG, "Add contact {0}", name);
+		return contact;
+	}
+	
+	//-------------------------------------------------------------------
+	/**
+	 * @return Number of host list entries whose hostname is still being resolved
+	 */
+	public int getPendingContactCount() {
+		return pendingContacts.size();
+	}
+	
 	//-------------------------------------------------------------------
 	private void announceToAllHosts()  {
-		List<Intermud2Contact> allHosts = new ArrayList<>(knownContacts.values());
+		List<Intermud2Contact> allHosts = new ArrayList<>(knownContacts.getAll());
 		for (Intermud2Contact cont : allHosts) {
 			try {
 				sendStartupRequest(cont);
@@ -579,108 +1162,78 @@ public class Intermud2Demon {
 				sendSupportedQuery(cont, "ping_q");
 				sendSupportedQuery(cont, "rwho_q");
 			} catch (Exception e) {
-				e.printStackTrace();
+				logger.log(Level.WARNING, "Failed announcing to "+cont.getName(), e);
 			}
 		}
 	}
 	
 	//-------------------------------------------------------------------
-	private void refreshOnline()  {
-		List<Intermud2Contact> allHosts = new ArrayList<>(knownContacts.values());
-		for (Intermud2Contact cont : allHosts) {
-			if (cont.getState()==ContactState.ONLINE || cont.getState()==ContactState.SCANNED) {
-				try {
-					Duration last = Duration.between(cont.getLastContact(), LocalDateTime.now());
-					if (last.toMinutes()>40) {
-						// MUD seems offline
-						cont.setState(ContactState.OFFLINE);
-					}
-				} catch (DateTimeException e) {
-					logger.log(Level.ERROR, "Error comparing time between {0} and {1}: "+e, cont.getLastContact(), LocalTime.now());
-				}
-				
-				try {
-					ping(cont);
-					requestWho(cont);
-				} catch (Exception e) {
-					e.printStackTrace();
-				}
-			}
+	/**
+	 * Online MUDs are refreshed regularly. Unresponsive MUDs are pinged
+	 * with exponential backoff, up to a maximum interval.
+	 */
+	private Duration getProbeInterval(Intermud2Contact cont) {
+		Duration interval;
+		if (cont.getState()==ContactState.ONLINE || cont.getState()==ContactState.SCANNED) {
+			interval = config.getRefreshInterval();
+		} else {
+			int failed = Math.min(cont.getFailedProbes(), 30);
+			interval = config.getPingInterval().multipliedBy(1L<<failed);
+			if (interval.compareTo(config.getMaxProbeInterval())>0)
+				interval = config.getMaxProbeInterval();
 		}
+		cont.setProbeInterval(interval);
+		return interval;
 	}
 	
 	//-------------------------------------------------------------------
-	private void pingUnknown()  {
-		List<Intermud2Contact> allHosts = new ArrayList<>(knownContacts.values());
-		for (Intermud2Contact cont : allHosts) {
-			if (cont.getState()==ContactState.ONLINE || cont.getState()==ContactState.SCANNED)
-				continue;
-			try {
-				ping(cont);
-			} catch (Exception e) {
-				e.printStackTrace();
+	/**
+	 * Called by the scheduler whenever a contact is due
+	 */
+	private void probe(Intermud2Contact cont)  {
+		// The new ping is only registered once the sender sent it, so
+		// count the last one now to decide with the current state
+		cont.expireProbe(System.nanoTime(), config.getPingTimeout());
+		ping(cont);
+		if (cont.getState()==ContactState.ONLINE || cont.getState()==ContactState.SCANNED) {
+			if (cont.getFailedProbes()>=config.getMissedProbesOffline()) {
+				// MUD seems offline
+				logger.log(Level.INFO, "MUD ''{0}'' missed {1} pings - seems offline", cont.getName(), cont.getFailedProbes());
+				knownContacts.setState(cont, ContactState.OFFLINE);
 			}
 		}
 	}
 	
 	//-------------------------------------------------------------------
 	private void pingAllHosts()  {
-		List<Intermud2Contact> allHosts = new ArrayList<>(knownContacts.values());
+		List<Intermud2Contact> allHosts = new ArrayList<>(knownContacts.getAll());
 		for (Intermud2Contact cont : allHosts) {
 			try {
 				ping(cont);
 			} catch (Exception e) {
-				e.printStackTrace();
+				logger.log(Level.WARNING, "Failed pinging "+cont.getName(), e);
 			}
 		}
 	}
 	
     //-------------------------------------------------------------------------
+	/**
+	 * @throws MalformedFrameException if the data is not a valid frame
+	 */
 	public static I2Message parseMessage(byte[] data, InetAddress sender, int port) {
-		String ascii = new String(data, StandardCharsets.UTF_8);
-		I2Message msg = asI2Message(ascii.trim(), sender,port);
-		if (msg.parameter.containsKey("ENCODING")) {
-			Charset cs = Charset.forName(msg.parameter.get("ENCODING"));
-			ascii = new String(data, cs);
-			msg = asI2Message(ascii.trim(), sender,port);
-		}
-		return msg;
+		return I2Parser.parse(data, 0, data.length, sender, port);
 	}
 	
-	//-------------------------------------------------------------------
-	private static I2Message asI2Message(String data, InetAddress sender, int port) {
-		//logger.log(Level.DEBUG, "parse: "+data);
-		if (!data.startsWith("@@@") && !data.endsWith("@@@"))
-			return null;
-		data = data.substring(3);
-		data = data.substring(0, data.length()-3);
-		//logger.log(Level.DEBUG, "really parse: <<<"+data+">>>");
-		String[] params = data.split("\\|\\|");
-		String command = params[0];
-		Map<String,String> ret = new HashMap<>();
-		for (int i=1; i<params.length; i++) {
-			int index = params[i].indexOf(":");
-			if (index>0) {
-				ret.put(params[i].substring(0, index), params[i].substring(index+1));
-			} else {
-				ret.put(params[i], null);
-			}
-		}
-		return new I2Message(command, ret, sender,port);
+    //-------------------------------------------------------------------------
+	/**
+	 * @throws MalformedFrameException if the data is not a valid frame
+	 */
+	public static I2Message parseMessage(byte[] data, int length, InetAddress sender, int port) {
+		return I2Parser.parse(data, 0, length, sender, port);
 	}
 	
 	//-------------------------------------------------------------------
-	private static Map<String,String> asSubParameter(String data) {
-		String[] params = data.split("\\|");
-		Map<String,String> ret = new HashMap<>();
-		for (int i=0; i<params.length; i++) {
-			int index = params[i].indexOf(":");
-			if (index>0) {
-				ret.put(params[i].substring(0, index), params[i].substring(index+1));
-			} else {
-				ret.put(params[i], null);
-			}
-		}
-		return ret;
+	static Map<String,String> asSubParameter(String data) {
+		return I2Parser.parseSubParameter(data);
 	}
 }
@@ -0,0 +1,101 @@
+package org.prelle.intermud2;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.ConstructorParameters;
+
+/**
+ * Lock and allocation free histogram of durations. Values are counted in
+ * power of two buckets, so percentiles are accurate within a factor of 2.
+ */
+public class LatencyHistogram {
+
+	/**
+	 * Read only view of a histogram, as exposed by JMX
+	 */
+	public static class Summary {
+		private final long count;
+		private final double meanMillis;
+		private final double p50Millis;
+		private final double p99Millis;
+		/** The largest value recorded - exact, unlike the percentiles */
+		private final double maxMillis;
+		@ConstructorParameters({"count", "meanMillis", "p50Millis", "p99Millis", "maxMillis"})
+		public Summary(long count, double meanMillis, double p50Millis, double p99Millis, double maxMillis) {
+			this.count = count;
+			this.meanMillis = meanMillis;
+			this.p50Millis = p50Millis;
+			this.p99Millis = p99Millis;
+			this.maxMillis = maxMillis;
+		}
+		public long getCount() { return count; }
+		public double getMeanMillis() { return meanMillis; }
+		public double getP50Millis() { return p50Millis; }
+		public double getP99Millis() { return p99Millis; }
+		public double getMaxMillis() { return maxMillis; }
+	}
+
+	/** Bucket i counts values in [2^(i-1), 2^i) nanoseconds */
+	private final AtomicLongArray buckets = new AtomicLongArray(64);
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	//-------------------------------------------------------------------
+	public void record(long nanos) {
+		if (nanos<0) nanos = 0;
+		buckets.incrementAndGet(64-Long.numberOfLeadingZeros(nanos) & 63);
+		sum.add(nanos);
+		max.accumulate(nanos);
+	}
+
+	//-------------------------------------------------------------------
+	public long getCount() {
+		long count = 0;
+		for (int i=0; i<64; i++)
+			count += buckets.get(i);
+		return count;
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @param percentile Between 0 and 100
+	 * @return Upper bound of the bucket containing the percentile, in
+	 *    nanoseconds - or 0 if nothing was recorded
+	 */
+	public long getPercentile(double percentile) {
+		long[] counts = new long[64];
+		long total = 0;
+		for (int i=0; i<64; i++) {
+			counts[i] = buckets.get(i);
+			total += counts[i];
+		}
+		if (total==0)
+			return 0;
+		long rank = (long)Math.ceil(total*percentile/100.0);
+		long seen = 0;
+		for (int i=0; i<64; i++) {
+			seen += counts[i];
+			if (seen>=Math.max(1, rank))
+				return (i==0)?0:((i>=63)?Long.MAX_VALUE:(1L<<i)-1);
+		}
+		return Long.MAX_VALUE;
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @return The largest value recorded, in nanoseconds
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	//-------------------------------------------------------------------
+	public Summary getSummary() {
+		long count = getCount();
+		double mean = (count==0)?0:sum.sum()/(double)count;
+		return new Summary(count, mean/1e6, getPercentile(50)/1e6, getPercentile(99)/1e6, getMax()/1e6);
+	}
+
+}
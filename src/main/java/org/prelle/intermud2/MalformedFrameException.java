@@ -0,0 +1,17 @@
+package org.prelle.intermud2;
+
+/**
+ * Thrown when a received datagram is not a valid Intermud2 frame.
+ * Does not fill in a stack trace, since rejecting garbage from the
+ * network is not an exceptional situation.
+ */
+public class MalformedFrameException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	//-------------------------------------------------------------------
+	public MalformedFrameException(String message) {
+		super(message, null, false, false);
+	}
+
+}
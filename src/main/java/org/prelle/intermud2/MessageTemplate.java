@@ -0,0 +1,123 @@
+package org.prelle.intermud2;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An outgoing message whose constant parts are encoded once. Only the
+ * numeric variable fields are written when rendering a packet.
+ */
+class MessageTemplate {
+
+	private final byte[][] segments;
+	private final int constantLength;
+
+	//-------------------------------------------------------------------
+	static class Builder {
+		private final List<byte[]> segments = new ArrayList<>();
+		private final StringBuilder current = new StringBuilder();
+
+		Builder literal(Object text) {
+			current.append(text);
+			return this;
+		}
+
+		/** Add a numeric variable field */
+		Builder slot() {
+			segments.add(current.toString().getBytes(StandardCharsets.US_ASCII));
+			current.setLength(0);
+			return this;
+		}
+
+		MessageTemplate build() {
+			segments.add(current.toString().getBytes(StandardCharsets.US_ASCII));
+			return new MessageTemplate(segments.toArray(new byte[segments.size()][]));
+		}
+	}
+
+	//-------------------------------------------------------------------
+	static Builder builder() {
+		return new Builder();
+	}
+
+	//-------------------------------------------------------------------
+	private MessageTemplate(byte[][] segments) {
+		this.segments = segments;
+		int len = 0;
+		for (byte[] seg : segments)
+			len += seg.length;
+		constantLength = len;
+	}
+
+	//-------------------------------------------------------------------
+	int getSlotCount() {
+		return segments.length-1;
+	}
+
+	//-------------------------------------------------------------------
+	byte[] render(long value) {
+		return render0(1, value, 0);
+	}
+
+	//-------------------------------------------------------------------
+	byte[] render(long value1, long value2) {
+		return render0(2, value1, value2);
+	}
+
+	//-------------------------------------------------------------------
+	private byte[] render0(int count, long value1, long value2) {
+		if (count!=getSlotCount())
+			throw new IllegalArgumentException("Expected "+getSlotCount()+" values, got "+count);
+		int len = constantLength;
+		if (count>0) len += digits(value1);
+		if (count>1) len += digits(value2);
+
+		byte[] ret = new byte[len];
+		int pos = 0;
+		for (int i=0; i<segments.length; i++) {
+			System.arraycopy(segments[i], 0, ret, pos, segments[i].length);
+			pos += segments[i].length;
+			if (i<count)
+				pos = writeDecimal((i==0)?value1:value2, ret, pos);
+		}
+		return ret;
+	}
+
+	//-------------------------------------------------------------------
+	private static int digits(long value) {
+		if (value==Long.MIN_VALUE)
+			return 20;
+		int len = 1;
+		if (value<0) {
+			len++;
+			value = -value;
+		}
+		while (value>=10) {
+			value /= 10;
+			len++;
+		}
+		return len;
+	}
+
+	//-------------------------------------------------------------------
+	private static int writeDecimal(long value, byte[] buf, int pos) {
+		if (value==Long.MIN_VALUE) {
+			byte[] min = Long.toString(value).getBytes(StandardCharsets.US_ASCII);
+			System.arraycopy(min, 0, buf, pos, min.length);
+			return pos+min.length;
+		}
+		int end = pos+digits(value);
+		if (value<0) {
+			buf[pos] = '-';
+			value = -value;
+		}
+		int i = end;
+		do {
+			buf[--i] = (byte)('0'+(value%10));
+			value /= 10;
+		} while (value>0);
+		return end;
+	}
+
+}
@@ -0,0 +1,102 @@
+package org.prelle.intermud2;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.prelle.intermud2.Intermud2Contact.ContactState;
+
+/**
+ * Encoded mudlist_a answers for the current content of the registry.
+ * The packets are only rebuilt when the registry version changed, so
+ * answering a mudlist_q is a replay of the cached packets.
+ */
+class MudlistCache {
+
+	private final static byte[] HEAD = "@@@mudlist_a".getBytes(StandardCharsets.US_ASCII);
+	private final static byte[] SEP  = "||".getBytes(StandardCharsets.US_ASCII);
+	private final static byte[] TAIL = "@@@".getBytes(StandardCharsets.US_ASCII);
+
+	private static record Snapshot(long version, List<byte[]> packets) {}
+
+	private final ContactRegistry registry;
+	private final int packetSize;
+	private volatile Snapshot snapshot;
+
+	//-------------------------------------------------------------------
+	/**
+	 * @param packetSize Maximum size of a packet, including the terminator
+	 */
+	MudlistCache(ContactRegistry registry, int packetSize) {
+		this.registry   = registry;
+		this.packetSize = packetSize;
+	}
+
+	//-------------------------------------------------------------------
+	List<byte[]> getPackets() {
+		Snapshot snap = snapshot;
+		long version = registry.getVersion();
+		if (snap!=null && snap.version==version)
+			return snap.packets;
+		synchronized (this) {
+			snap = snapshot;
+			if (snap!=null && snap.version==version)
+				return snap.packets;
+			snap = new Snapshot(version, build(registry.getAll(), packetSize));
+			snapshot = snap;
+			return snap.packets;
+		}
+	}
+
+	//-------------------------------------------------------------------
+	static byte[] encodeEntry(int index, Intermud2Contact mud) {
+		String host = (mud.getHost()!=null)?mud.getHost():mud.getIpAddress().getHostAddress();
+		StringBuilder buf = new StringBuilder(96);
+		buf.append(index)
+			.append(":|NAME:").append(mud.getName())
+			.append("|HOST:").append(host)
+			.append("|HOSTADDRESS:").append(mud.getIpAddress().getHostAddress())
+			.append("|PORT:").append(mud.getPort())
+			.append("|PORTUDP:").append(mud.getIm2Port());
+		return buf.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Pack as many entries into each packet as fit into packetSize
+	 */
+	static List<byte[]> build(Collection<Intermud2Contact> contacts, int packetSize) {
+		// Room for the zero terminator added by the sender
+		int budget = packetSize - 1;
+		List<byte[]> packets = new ArrayList<>();
+		ByteArrayOutputStream packet = new ByteArrayOutputStream(packetSize);
+		int entries = 0;
+		int index   = 0;
+		for (Intermud2Contact mud : contacts) {
+			if (mud.getState()==ContactState.UNKNOWN)
+				continue;
+			index++;
+			byte[] entry = encodeEntry(index, mud);
+			if (entries>0 && packet.size()+SEP.length+entry.length+TAIL.length>budget) {
+				packet.writeBytes(TAIL);
+				packets.add(packet.toByteArray());
+				packet.reset();
+				entries = 0;
+			}
+			if (entries==0)
+				packet.writeBytes(HEAD);
+			packet.writeBytes(SEP);
+			packet.writeBytes(entry);
+			entries++;
+		}
+		if (entries>0) {
+			packet.writeBytes(TAIL);
+			packets.add(packet.toByteArray());
+		}
+		return Collections.unmodifiableList(packets);
+	}
+
+}
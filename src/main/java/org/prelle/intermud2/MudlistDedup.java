@@ -0,0 +1,91 @@
+package org.prelle.intermud2;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers fingerprints of recently processed mudlist_a entries, so that
+ * entries other MUDs send again and again are not parsed and applied
+ * every time. The number of remembered entries is limited, the least
+ * recently seen are forgotten first. Entries are processed again once
+ * their fingerprint is older than the TTL, so that information lost
+ * in the meantime - e.g. a contact that has been removed - comes back.
+ * Only entries that have been applied successfully are remembered.
+ */
+class MudlistDedup {
+
+	private final int capacity;
+	private final long ttl;
+	/** Fingerprint to expiry time (System.nanoTime) - guarded by this */
+	private final Map<Long,Long> seen;
+
+	//-------------------------------------------------------------------
+	MudlistDedup(int capacity, Duration ttl) {
+		this.capacity = capacity;
+		this.ttl      = ttl.toNanos();
+		this.seen     = new LinkedHashMap<>(Math.min(capacity, 1024)*2, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			protected boolean removeEldestEntry(Map.Entry<Long,Long> eldest) {
+				return size()>MudlistDedup.this.capacity;
+			}
+		};
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * 64 bit FNV-1a hash of the characters
+	 */
+	static long fingerprint(CharSequence entry) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i=0; i<entry.length(); i++) {
+			char c = entry.charAt(i);
+			hash = (hash ^ (c & 0xFF)) * 0x100000001b3L;
+			hash = (hash ^ (c >>> 8))  * 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @param fingerprint See {@link #fingerprint(CharSequence)}
+	 * @return TRUE if the entry has been applied recently and can be skipped
+	 */
+	boolean isDuplicate(long fingerprint) {
+		if (capacity<=0)
+			return false;
+		long now = System.nanoTime();
+		synchronized (this) {
+			Long expires = seen.get(fingerprint);
+			return expires!=null && now-expires<0;
+		}
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Remember an entry after it has been applied
+	 * @param fingerprint See {@link #fingerprint(CharSequence)}
+	 */
+	void remember(long fingerprint) {
+		if (capacity<=0)
+			return;
+		long expires = System.nanoTime()+ttl;
+		synchronized (this) {
+			seen.put(fingerprint, expires);
+		}
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Forget all entries
+	 */
+	synchronized void clear() {
+		seen.clear();
+	}
+
+	//-------------------------------------------------------------------
+	synchronized int size() {
+		return seen.size();
+	}
+
+}
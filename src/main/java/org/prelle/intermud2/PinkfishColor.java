@@ -1,34 +1,231 @@
 package org.prelle.intermud2;
 
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
- * 
+ * Translates Pinkfish colour codes like <code>%^RED%^</code> in a single
+ * pass. Only the complete text between two <code>%^</code> delimiters
+ * is a code, so <code>%^B_RED%^</code> is never mistaken for
+ * <code>%^RED%^</code>. Like terminal_colour, segments that are no
+ * known code are kept as text - only the delimiters are removed.
  */
 public class PinkfishColor {
 
+	public static enum Target {
+		/** ANSI 16 colour escape sequences */
+		ANSI16,
+		/** ANSI escape sequences using the 256 colour palette */
+		ANSI256,
+		/** ANSI escape sequences using 24 bit colours */
+		TRUECOLOR,
+		/** HTML spans with inline styles - the text is escaped */
+		HTML,
+		/** Remove all codes */
+		PLAIN
+	}
+
+	private static enum Code {
+		BLACK    (30,  16, "#000000"),
+		RED      (31, 160, "#d70000"),
+		GREEN    (32,  34, "#00af00"),
+		ORANGE   (33, 172, "#d78700"),
+		YELLOW   (93, 226, "#ffff00"),
+		BLUE     (34,  27, "#005fff"),
+		MAGENTA  (35, 127, "#af00af"),
+		CYAN     (36,  37, "#00afaf"),
+		WHITE    (37, 252, "#d0d0d0"),
+		B_BLACK  (90, 244, "#808080"),
+		B_RED    (91, 196, "#ff0000"),
+		B_GREEN  (92,  46, "#00ff00"),
+		B_ORANGE (93, 214, "#ffaf00"),
+		B_YELLOW (93, 226, "#ffff00"),
+		B_BLUE   (94,  33, "#0087ff"),
+		B_MAGENTA(95, 201, "#ff00ff"),
+		B_CYAN   (96,  51, "#00ffff"),
+		B_WHITE  (97, 231, "#ffffff"),
+		RESET    (0, null),
+		BOLD     (1, "font-weight:bold"),
+		FLASH    (5, "text-decoration:blink"),
+		UNDERLINE(4, "text-decoration:underline"),
+		REVERSE  (7, "filter:invert(100%)"),
+		;
+		final String ansi16;
+		final String ansi256;
+		final String truecolor;
+		final String html;
+		/** Colours with their index in the 256 colour palette and RGB value */
+		Code(int sgr, int palette, String rgb) {
+			ansi16    = "\u001b["+sgr+"m";
+			ansi256   = "\u001b[38;5;"+palette+"m";
+			truecolor = "\u001b[38;2;"+Integer.parseInt(rgb.substring(1,3),16)+";"
+					+Integer.parseInt(rgb.substring(3,5),16)+";"+Integer.parseInt(rgb.substring(5,7),16)+"m";
+			html      = "<span style=\"color:"+rgb+"\">";
+		}
+		/** Attributes, which are the same in all ANSI targets */
+		Code(int sgr, String css) {
+			ansi16    = "\u001b["+sgr+"m";
+			ansi256   = ansi16;
+			truecolor = ansi16;
+			html      = (css!=null)?("<span style=\""+css+"\">"):null;
+		}
+	}
+
+	private final static Code[] CODES = Code.values();
+
+	/** Don't cache translations of longer texts */
+	private final static int MAX_CACHED_LENGTH = 4096;
+	/** Cached translations per target - the cache is cleared when full */
+	private final static int MAX_CACHED = 1024;
+	private final static Map<Target,Map<String,String>> CACHE = new EnumMap<>(Target.class);
+	static {
+		for (Target target : Target.values())
+			CACHE.put(target, new ConcurrentHashMap<>());
+	}
+
 	//-------------------------------------------------------------------
 	public static String decodetoANSI(String value) {
-		value = value.replace("%^RED"    , "\u001b[31m");
-		value = value.replace("%^GREEN"  , "\u001b[32m");
-		value = value.replace("%^ORANGE" , "\u001b[33m");
-		value = value.replace("%^BLUE"   , "\u001b[34m");
-		value = value.replace("%^MAGENTA", "\u001b[35m");
-		value = value.replace("%^CYAN"   , "\u001b[36m");
-		value = value.replace("%^WHITE"  , "\u001b[37m");
-		value = value.replace("%^B_RED"    , "\u001b[91m");
-		value = value.replace("%^B_GREEN"  , "\u001b[92m");
-		value = value.replace("%^B_ORANGE" , "\u001b[93m");
-		value = value.replace("%^B_BLUE"   , "\u001b[94m");
-		value = value.replace("%^B_MAGENTA", "\u001b[95m");
-		value = value.replace("%^B_CYAN"   , "\u001b[96m");
-		value = value.replace("%^B_WHITE"  , "\u001b[97m");
-		value = value.replace("%^RESET"  , "\u001b[0m");
-		value = value.replace("%^BOLD"   , "\u001b[1m");
-		value = value.replace("%^FLASH"   , "\u001b[5m");
-		value = value.replace("%^UNDERLINE", "\u001b[4m");
-		value = value.replace("%^REVERSE ", "\u001b[7m");
-		value = value.replace("%^"   , "");
- 		
-		return value;
+		return translate(value, Target.ANSI16);
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Translate a text. Results for identical texts are cached.
+	 */
+	public static String translate(String value, Target target) {
+		if (value==null || value.length()>MAX_CACHED_LENGTH) {
+			return (value==null)?null:translate(value, target, new StringBuilder(value.length()+32)).toString();
+		}
+		Map<String,String> cache = CACHE.get(target);
+		String cached = cache.get(value);
+		if (cached!=null)
+			return cached;
+		String translated = translate(value, target, new StringBuilder(value.length()+32)).toString();
+		if (cache.size()>=MAX_CACHED)
+			cache.clear();
+		cache.put(value, translated);
+		return translated;
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Translate a text into the given buffer, without caching
+	 * @return The buffer
+	 */
+	public static StringBuilder translate(CharSequence value, Target target, StringBuilder out) {
+		try {
+			translate(value, target, (Appendable)out);
+		} catch (IOException e) {
+			// Never thrown by StringBuilder
+			throw new IllegalStateException(e);
+		}
+		return out;
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Translate a text into the given output, without caching
+	 */
+	public static void translate(CharSequence value, Target target, Appendable out) throws IOException {
+		int len = value.length();
+		int openSpans = 0;
+		int delim = indexOfDelimiter(value, 0);
+		if (delim<0) {
+			text(value, 0, len, target, out);
+			return;
+		}
+		text(value, 0, delim, target, out);
+		while (delim>=0) {
+			int start = delim+2;
+			int end   = indexOfDelimiter(value, start);
+			int segEnd = (end<0)?len:end;
+			// A code at the very end may lack the closing delimiter
+			Code code = lookup(value, start, segEnd);
+			if (code!=null) {
+				openSpans = code(code, target, out, openSpans);
+			} else {
+				text(value, start, segEnd, target, out);
+			}
+			delim = end;
+		}
+		// Close everything still open
+		if (target==Target.HTML) {
+			for (int i=0; i<openSpans; i++)
+				out.append("</span>");
+		}
+	}
+
+	//-------------------------------------------------------------------
+	private static int indexOfDelimiter(CharSequence value, int from) {
+		for (int i=from; i<value.length()-1; i++) {
+			if (value.charAt(i)=='%' && value.charAt(i+1)=='^')
+				return i;
+		}
+		return -1;
+	}
+
+	//-------------------------------------------------------------------
+	private static Code lookup(CharSequence value, int start, int end) {
+		int len = end-start;
+		for (Code code : CODES) {
+			String name = code.name();
+			if (name.length()!=len)
+				continue;
+			boolean match = true;
+			for (int i=0; i<len && match; i++)
+				match = name.charAt(i)==value.charAt(start+i);
+			if (match)
+				return code;
+		}
+		return null;
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @return Number of open HTML spans
+	 */
+	private static int code(Code code, Target target, Appendable out, int openSpans) throws IOException {
+		switch (target) {
+		case ANSI16    -> out.append(code.ansi16);
+		case ANSI256   -> out.append(code.ansi256);
+		case TRUECOLOR -> out.append(code.truecolor);
+		case HTML      -> {
+			if (code==Code.RESET) {
+				for (int i=0; i<openSpans; i++)
+					out.append("</span>");
+				return 0;
+			}
+			out.append(code.html);
+			return openSpans+1;
+		}
+		case PLAIN     -> {}
+		}
+		return openSpans;
+	}
+
+	//-------------------------------------------------------------------
+	private static void text(CharSequence value, int start, int end, Target target, Appendable out) throws IOException {
+		if (target!=Target.HTML) {
+			out.append(value, start, end);
+			return;
+		}
+		int from = start;
+		for (int i=start; i<end; i++) {
+			String escaped = switch (value.charAt(i)) {
+			case '<' -> "&lt;";
+			case '>' -> "&gt;";
+			case '&' -> "&amp;";
+			case '"' -> "&quot;";
+			default  -> null;
+			};
+			if (escaped!=null) {
+				out.append(value, from, i).append(escaped);
+				from = i+1;
+			}
+		}
+		out.append(value, from, end);
 	}
 
 }
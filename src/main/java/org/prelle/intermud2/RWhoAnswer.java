@@ -0,0 +1,66 @@
+package org.prelle.intermud2;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import org.prelle.intermud2.PinkfishColor.Target;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+/**
+ * The answer of a MUD to rwho_q - the list of players online, as the MUD
+ * formatted it.
+ */
+@Getter
+public class RWhoAnswer {
+
+	private final Intermud2Contact contact;
+	/** The text as received, possibly with Pinkfish colour codes */
+	private final String text;
+	private final Instant received;
+	/** The clock of the cache, so the age matches its TTL */
+	@Getter(AccessLevel.NONE)
+	private final Clock clock;
+
+	//-------------------------------------------------------------------
+	RWhoAnswer(Intermud2Contact contact, String text, Clock clock) {
+		this.contact  = contact;
+		this.text     = (text!=null)?text:"";
+		this.clock    = clock;
+		this.received = clock.instant();
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @return The text translated for the given target
+	 */
+	public String format(Target target) {
+		return PinkfishColor.translate(text, target);
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @return The lines of the text without colour codes
+	 */
+	public List<String> getLines() {
+		return format(Target.PLAIN).lines().toList();
+	}
+
+	//-------------------------------------------------------------------
+	public Duration getAge() {
+		return Duration.between(received, clock.instant());
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "RWhoAnswer("+contact.getName()+", "+received+")";
+	}
+
+}
@@ -0,0 +1,125 @@
+package org.prelle.intermud2;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * The latest rwho answer of each MUD. Requests are answered from the
+ * cache while the answer is younger than the TTL; otherwise one query is
+ * sent, which all concurrent requests for the same MUD share. All rwho
+ * answers are stored by {@link #answered(Intermud2Contact, String)},
+ * including those that arrive without being requested.
+ */
+class RWhoCache implements ContactRegistry.RegistryListener {
+
+	private final Duration ttl;
+	private final Clock clock;
+	private final Map<Intermud2Contact,RWhoAnswer> answers = new ConcurrentHashMap<>();
+	private final Map<Intermud2Contact,CompletableFuture<RWhoAnswer>> inFlight = new ConcurrentHashMap<>();
+
+	//-------------------------------------------------------------------
+	/**
+	 * @param ttl How long an answer is used before asking again
+	 */
+	RWhoCache(Duration ttl) {
+		this(ttl, Clock.systemUTC());
+	}
+
+	//-------------------------------------------------------------------
+	RWhoCache(Duration ttl, Clock clock) {
+		this.ttl   = ttl;
+		this.clock = clock;
+	}
+
+	//-------------------------------------------------------------------
+	private boolean isFresh(RWhoAnswer answer) {
+		return answer!=null && answer.getReceived().plus(ttl).isAfter(clock.instant());
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @return The cached answer, if it is younger than the TTL - or NULL
+	 */
+	RWhoAnswer get(Intermud2Contact contact) {
+		RWhoAnswer answer = answers.get(contact);
+		return isFresh(answer)?answer:null;
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @param query Sends rwho_q and completes with the RWHO text
+	 * @return The cached answer, or the answer of a query already sent or
+	 *    sent now. Each caller gets a future of its own, so cancelling it
+	 *    doesn't affect others.
+	 */
+	CompletableFuture<RWhoAnswer> request(Intermud2Contact contact, Function<Intermud2Contact,CompletableFuture<String>> query) {
+		RWhoAnswer cached = get(contact);
+		if (cached!=null)
+			return CompletableFuture.completedFuture(cached);
+		CompletableFuture<RWhoAnswer> created = new CompletableFuture<>();
+		CompletableFuture<RWhoAnswer> running = inFlight.putIfAbsent(contact, created);
+		if (running!=null)
+			return running.copy();
+		Instant asked = clock.instant();
+		query.apply(contact).whenComplete( (text, error) -> {
+			inFlight.remove(contact, created);
+			if (error!=null) {
+				created.completeExceptionally(error);
+				return;
+			}
+			// Usually stored by the answer handler already
+			RWhoAnswer answer = answers.get(contact);
+			if (answer==null || answer.getReceived().isBefore(asked))
+				answer = answered(contact, text);
+			created.complete(answer);
+		});
+		return created.copy();
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Remember an answer
+	 */
+	RWhoAnswer answered(Intermud2Contact contact, String text) {
+		RWhoAnswer answer = new RWhoAnswer(contact, text, clock);
+		answers.put(contact, answer);
+		return answer;
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Forget answers older than the TTL
+	 */
+	void expire() {
+		Instant limit = clock.instant().minus(ttl);
+		answers.values().removeIf(answer -> !answer.getReceived().isAfter(limit));
+	}
+
+	//-------------------------------------------------------------------
+	int size() {
+		return answers.size();
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @see org.prelle.intermud2.ContactRegistry.RegistryListener#contactAdded(org.prelle.intermud2.Intermud2Contact)
+	 */
+	@Override
+	public void contactAdded(Intermud2Contact contact) {
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @see org.prelle.intermud2.ContactRegistry.RegistryListener#contactRemoved(org.prelle.intermud2.Intermud2Contact)
+	 */
+	@Override
+	public void contactRemoved(Intermud2Contact contact) {
+		answers.remove(contact);
+	}
+
+}
@@ -0,0 +1,25 @@
+package org.prelle.intermud2;
+
+/**
+ * Result of queueing an outgoing Intermud2 message.
+ */
+public enum SendStatus {
+	/** Message will be sent */
+	QUEUED,
+	/** Message was addressed to this daemon itself */
+	IGNORED,
+	/** Too many messages to the same destination */
+	RATE_LIMITED,
+	/** The send queue is full */
+	QUEUE_FULL,
+	/** The message doesn't fit into a datagram */
+	TOO_LARGE,
+	/** The daemon is not running */
+	CLOSED
+	;
+
+	//-------------------------------------------------------------------
+	public boolean isQueued() {
+		return this==QUEUED;
+	}
+}
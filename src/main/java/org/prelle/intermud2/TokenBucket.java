@@ -0,0 +1,67 @@
+package org.prelle.intermud2;
+
+/**
+ * Classic token bucket on top of the monotonic clock.
+ */
+class TokenBucket {
+
+	private final double tokensPerNano;
+	private final double capacity;
+	private double tokens;
+	private long lastRefill;
+
+	//-------------------------------------------------------------------
+	/**
+	 * @param ratePerSecond Tokens added per second
+	 * @param burst         Maximum number of tokens stored
+	 */
+	TokenBucket(double ratePerSecond, int burst) {
+		this.tokensPerNano = ratePerSecond / 1_000_000_000.0;
+		this.capacity      = Math.max(1, burst);
+		this.tokens        = capacity;
+		this.lastRefill    = System.nanoTime();
+	}
+
+	//-------------------------------------------------------------------
+	private void refill(long now) {
+		if (now>lastRefill) {
+			tokens = Math.min(capacity, tokens + (now-lastRefill)*tokensPerNano);
+			lastRefill = now;
+		}
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Take a token, if one is available.
+	 */
+	synchronized boolean tryAcquire() {
+		refill(System.nanoTime());
+		if (tokens<1)
+			return false;
+		tokens--;
+		return true;
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @return Nanoseconds until the next token is available - 0 if there
+	 *    is one right now
+	 */
+	synchronized long nanosUntilAvailable() {
+		refill(System.nanoTime());
+		if (tokens>=1)
+			return 0;
+		return (long)Math.ceil((1-tokens)/tokensPerNano);
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @return TRUE if the bucket is full, meaning it has been idle for
+	 *    a while
+	 */
+	synchronized boolean isFull() {
+		refill(System.nanoTime());
+		return tokens>=capacity;
+	}
+
+}
@@ -0,0 +1,65 @@
+package org.prelle.intermud2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.junit.Test;
+import org.prelle.intermud2.I2Metrics.Rejection;
+
+public class AdmissionTest {
+
+	private static InetAddress ip(int last) throws UnknownHostException {
+		return InetAddress.getByAddress(new byte[] {10,0,0,(byte)last});
+	}
+
+	private static Rejection check(I2Admission admission, String packet, InetAddress source) {
+		byte[] data = packet.getBytes(StandardCharsets.US_ASCII);
+		return admission.check(data, data.length, source, true);
+	}
+
+	@Test
+	public void testFilter() throws UnknownHostException {
+		I2Admission admission = new I2Admission(1000, 1000, 10, EnumSet.of(I2Command.PING_Q, I2Command.RWHO_A));
+		assertNull(check(admission, "@@@ping_q||NAME:x@@@", ip(1)));
+		assertNull(check(admission, "@@@rwho_a||RWHO:x", ip(1)));
+		assertNull(check(admission, "\r\n @@@ping_q||NAME:x@@@", ip(1)));
+		assertEquals(Rejection.UNKNOWN_COMMAND, check(admission, "@@@gtell||NAME:x@@@", ip(1)));
+		assertEquals(Rejection.UNKNOWN_COMMAND, check(admission, "@@@ping_qq||NAME:x@@@", ip(1)));
+		assertEquals(Rejection.MALFORMED, check(admission, "GET / HTTP/1.0", ip(1)));
+		assertEquals(Rejection.MALFORMED, check(admission, "@@", ip(1)));
+		// Continuations are only rate limited
+		byte[] rest = "Bob@@@".getBytes(StandardCharsets.US_ASCII);
+		assertNull(admission.check(rest, rest.length, ip(1), false));
+	}
+
+	@Test
+	public void testDefaultCommands() {
+		// Everything the daemon has a handler for
+		Set<I2Command> handled = EnumSet.of(I2Command.PING_Q, I2Command.PING_A, I2Command.MUDLIST_Q,
+				I2Command.MUDLIST_A, I2Command.RWHO_A, I2Command.SUPPORTED_A);
+		assertEquals(handled, I2Config.builder().name("Test").build().getAcceptedCommands());
+	}
+
+	@Test
+	public void testRateLimit() throws UnknownHostException {
+		I2Admission admission = new I2Admission(0.001, 3, 2, EnumSet.of(I2Command.PING_Q));
+		for (int i=0; i<3; i++)
+			assertNull(check(admission, "@@@ping_q@@@", ip(1)));
+		assertEquals(Rejection.RATE_LIMITED, check(admission, "@@@ping_q@@@", ip(1)));
+		// Other sources have buckets of their own
+		assertNull(check(admission, "@@@ping_q@@@", ip(2)));
+		assertEquals(2, admission.getSourceCount());
+		// No more room - further sources share one bucket
+		for (int i=0; i<3; i++)
+			assertNull(check(admission, "@@@ping_q@@@", ip(10+i)));
+		assertEquals(Rejection.RATE_LIMITED, check(admission, "@@@ping_q@@@", ip(20)));
+		assertEquals(2, admission.getSourceCount());
+	}
+
+}
@@ -0,0 +1,62 @@
+package org.prelle.intermud2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.net.InetAddress;
+import java.time.Duration;
+
+import org.junit.Test;
+
+public class ContactLivenessTest {
+
+	private final static Duration TIMEOUT = Duration.ofSeconds(30);
+	private final static long SECOND = 1_000_000_000L;
+
+	@Test
+	public void testRoundTripTime() {
+		Intermud2Contact contact = new Intermud2Contact(InetAddress.getLoopbackAddress(), 4004);
+		assertNull(contact.getSmoothedRtt());
+
+		contact.probeSent(0, TIMEOUT);
+		contact.probeAnswered(SECOND);
+		assertEquals(Duration.ofSeconds(1), contact.getSmoothedRtt());
+
+		contact.probeSent(10*SECOND, TIMEOUT);
+		contact.probeAnswered(19*SECOND);
+		assertEquals(Duration.ofSeconds(2), contact.getSmoothedRtt());
+		assertEquals(0, contact.getFailedProbes());
+	}
+
+	@Test
+	public void testMissedProbes() {
+		Intermud2Contact contact = new Intermud2Contact(InetAddress.getLoopbackAddress(), 4004);
+		contact.probeSent(0, TIMEOUT);
+		// Still within timeout
+		contact.probeSent(10*SECOND, TIMEOUT);
+		assertEquals(0, contact.getFailedProbes());
+		contact.probeSent(60*SECOND, TIMEOUT);
+		contact.probeSent(120*SECOND, TIMEOUT);
+		assertEquals(2, contact.getFailedProbes());
+
+		contact.probeAnswered(121*SECOND);
+		assertEquals(0, contact.getFailedProbes());
+		assertEquals(Duration.ofSeconds(1), contact.getSmoothedRtt());
+	}
+
+	@Test
+	public void testExpireBeforeSending() {
+		Intermud2Contact contact = new Intermud2Contact(InetAddress.getLoopbackAddress(), 4004);
+		contact.probeSent(0, TIMEOUT);
+		contact.expireProbe(10*SECOND, TIMEOUT);
+		assertEquals(0, contact.getFailedProbes());
+		// Counted before the next ping leaves the send queue
+		contact.expireProbe(60*SECOND, TIMEOUT);
+		assertEquals(1, contact.getFailedProbes());
+		contact.probeSent(62*SECOND, TIMEOUT);
+		assertEquals(1, contact.getFailedProbes());
+		contact.probeAnswered(63*SECOND);
+		assertEquals(Duration.ofSeconds(1), contact.getSmoothedRtt());
+	}
+
+}
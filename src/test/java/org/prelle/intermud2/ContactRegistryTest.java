@@ -0,0 +1,70 @@
+package org.prelle.intermud2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.junit.Test;
+
+public class ContactRegistryTest {
+
+	private static InetAddress ip(int last) throws UnknownHostException {
+		return InetAddress.getByAddress(new byte[] {10,0,0,(byte)last});
+	}
+
+	@Test
+	public void testIndexes() throws UnknownHostException {
+		ContactRegistry registry = new ContactRegistry();
+		Intermud2Contact contact = new Intermud2Contact(ip(1), 4004);
+		contact.setName("Eden");
+		registry.add(contact);
+
+		assertSame(contact, registry.get(ip(1), 4004));
+		assertSame(contact, registry.getByName("EDEN"));
+		assertSame(contact, registry.getByIPOnly(ip(1)));
+		assertSame(contact, registry.getOrCreate(ip(1), 4004));
+		assertEquals(1, registry.size());
+	}
+
+	@Test
+	public void testUpdateReindexes() throws UnknownHostException {
+		ContactRegistry registry = new ContactRegistry();
+		Intermud2Contact contact = registry.getOrCreate(ip(1), 4004);
+		InetAddress newAddress = ip(2);
+		registry.update(contact, c -> c.setName("Old"));
+		registry.update(contact, c -> {
+			c.setName("New");
+			c.setIpAddress(newAddress);
+			c.setIm2Port(5004);
+		});
+
+		assertNull(registry.getByName("old"));
+		assertNull(registry.get(ip(1), 4004));
+		assertNull(registry.getByIPOnly(ip(1)));
+		assertSame(contact, registry.getByName("new"));
+		assertSame(contact, registry.get(ip(2), 5004));
+		assertSame(contact, registry.getByIPOnly(ip(2)));
+		assertEquals(1, registry.size());
+	}
+
+	@Test
+	public void testVisibleDuringUpdate() throws UnknownHostException {
+		ContactRegistry registry = new ContactRegistry();
+		InetAddress address = ip(1);
+		Intermud2Contact contact = registry.getOrCreate(address, 4004);
+		registry.update(contact, c -> c.setName("Eden"));
+		registry.update(contact, c -> {
+			c.setMudLib("Nightmare");
+			assertSame(contact, registry.get(address, 4004));
+			assertSame(contact, registry.getByName("eden"));
+		});
+		// Only the case of the name changes
+		registry.update(contact, c -> c.setName("EDEN"));
+		assertSame(contact, registry.getByName("Eden"));
+		assertSame(contact, registry.getByIPOnly(ip(1)));
+	}
+
+}
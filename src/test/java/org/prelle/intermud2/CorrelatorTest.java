@@ -0,0 +1,147 @@
+package org.prelle.intermud2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.prelle.intermud2.Intermud2Demon.I2Message;
+
+public class CorrelatorTest {
+
+	private final static InetAddress HOST = InetAddress.getLoopbackAddress();
+
+	//-------------------------------------------------------------------
+	private static I2Message answer(String command, String... keyValues) {
+		Map<String,String> param = new HashMap<>();
+		for (int i=0; i<keyValues.length; i+=2)
+			param.put(keyValues[i], keyValues[i+1]);
+		return new I2Message(command, param, HOST, 4242);
+	}
+
+	//-------------------------------------------------------------------
+	@Test
+	public void testMatchByAnswerId() throws Exception {
+		I2Correlator correlator = new I2Correlator(Duration.ofSeconds(10), Duration.ofSeconds(1));
+		long[] sentId = new long[1];
+		CompletableFuture<I2Message> future = correlator.expect(new I2Correlator.Key(HOST, 4000, I2Command.RWHO_A, null), id -> {
+			sentId[0] = id;
+			return SendStatus.QUEUED;
+		});
+		// Unrelated ID and different port - not ours
+		assertFalse(correlator.answered(answer("rwho_a", "ANSWERID", "17", "PORTUDP", "5000")));
+		assertFalse(future.isDone());
+
+		I2Message mess = answer("rwho_a", "ANSWERID", String.valueOf(sentId[0]), "PORTUDP", "5000");
+		assertTrue(correlator.answered(mess));
+		assertSame(mess, future.get());
+		assertEquals(0, correlator.getPendingCount());
+	}
+
+	//-------------------------------------------------------------------
+	@Test
+	public void testAnswerIdFromOtherSender() throws Exception {
+		I2Correlator correlator = new I2Correlator(Duration.ofSeconds(10), Duration.ofSeconds(1));
+		long[] sentId = new long[1];
+		CompletableFuture<I2Message> future = correlator.expect(new I2Correlator.Key(HOST, 4000, I2Command.RWHO_A, null), id -> {
+			sentId[0] = id;
+			return SendStatus.QUEUED;
+		});
+		Map<String,String> param = new HashMap<>();
+		param.put("ANSWERID", String.valueOf(sentId[0]));
+		param.put("RWHO", "Mallory");
+		InetAddress other = InetAddress.getByAddress(new byte[] {10,0,0,66});
+		assertFalse(correlator.answered(new I2Message("rwho_a", param, other, 4000)));
+		// Right sender, but another command
+		assertFalse(correlator.answered(answer("ping_a", "ANSWERID", String.valueOf(sentId[0]))));
+		assertFalse(future.isDone());
+		assertTrue(correlator.answered(answer("rwho_a", "ANSWERID", String.valueOf(sentId[0]))));
+		assertTrue(future.isDone());
+	}
+
+	//-------------------------------------------------------------------
+	@Test
+	public void testMatchBySender() throws Exception {
+		I2Correlator correlator = new I2Correlator(Duration.ofSeconds(10), Duration.ofSeconds(1));
+		CompletableFuture<I2Message> yes = correlator.expect(new I2Correlator.Key(HOST, 4000, I2Command.SUPPORTED_A, "rwho_q"), id -> SendStatus.QUEUED);
+		CompletableFuture<I2Message> no  = correlator.expect(new I2Correlator.Key(HOST, 4000, I2Command.SUPPORTED_A, "gtell"), id -> SendStatus.QUEUED);
+
+		assertTrue(correlator.answered(answer("supported_a", "PORTUDP", "4000", "CMD", "gtell", "NOTSUPPORTED", "yes")));
+		assertTrue(no.isDone());
+		assertFalse(yes.isDone());
+		assertTrue(correlator.answered(answer("supported_a", "PORTUDP", "4000", "CMD", "rwho_q", "SUPPORTED", "yes")));
+		assertEquals("yes", yes.get().parameter().get("SUPPORTED"));
+	}
+
+	//-------------------------------------------------------------------
+	@Test
+	public void testCoalescing() throws Exception {
+		I2Correlator correlator = new I2Correlator(Duration.ofSeconds(10), Duration.ofSeconds(1));
+		AtomicInteger sent = new AtomicInteger();
+		I2Correlator.Key key = new I2Correlator.Key(HOST, 4000, I2Command.PING_A, null);
+		CompletableFuture<I2Message> first  = correlator.expect(key, id -> { sent.incrementAndGet(); return SendStatus.QUEUED; });
+		CompletableFuture<I2Message> second = correlator.expect(key, id -> { sent.incrementAndGet(); return SendStatus.QUEUED; });
+		assertEquals(1, sent.get());
+		// Cancelling one caller must not affect the other
+		first.cancel(false);
+
+		correlator.answered(answer("ping_a", "PORTUDP", "4000"));
+		assertEquals("ping_a", second.get().command());
+	}
+
+	//-------------------------------------------------------------------
+	@Test
+	public void testNotSent() throws Exception {
+		I2Correlator correlator = new I2Correlator(Duration.ofSeconds(10), Duration.ofSeconds(1));
+		CompletableFuture<I2Message> future = correlator.expect(new I2Correlator.Key(HOST, 4000, I2Command.PING_A, null), id -> SendStatus.RATE_LIMITED);
+		assertTrue(future.isCompletedExceptionally());
+		assertEquals(0, correlator.getPendingCount());
+	}
+
+	//-------------------------------------------------------------------
+	@Test
+	public void testTimeout() throws Exception {
+		I2Correlator correlator = new I2Correlator(Duration.ZERO, Duration.ofSeconds(1));
+		CompletableFuture<I2Message> future = correlator.expect(new I2Correlator.Key(HOST, 4000, I2Command.PING_A, null), id -> SendStatus.QUEUED);
+		Thread.sleep(1);
+		correlator.expire();
+		try {
+			future.get();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof TimeoutException);
+		}
+		assertTrue(future.isCompletedExceptionally());
+	}
+
+	//-------------------------------------------------------------------
+	@Test
+	public void testCollect() throws Exception {
+		I2Correlator correlator = new I2Correlator(Duration.ofSeconds(10), Duration.ZERO);
+		long[] sentId = new long[1];
+		CompletableFuture<List<I2Message>> future = correlator.expectAll(new I2Correlator.Key(HOST, 4000, I2Command.MUDLIST_A, null), id -> {
+			sentId[0] = id;
+			return SendStatus.QUEUED;
+		});
+		correlator.expire();
+		assertFalse(future.isDone());
+
+		correlator.answered(answer("mudlist_a", "ANSWERID", String.valueOf(sentId[0]), "0", "|NAME:One|"));
+		correlator.answered(answer("mudlist_a", "ANSWERID", String.valueOf(sentId[0]), "1", "|NAME:Two|"));
+		assertFalse(future.isDone());
+		Thread.sleep(1);
+		correlator.expire();
+		assertEquals(2, future.get().size());
+	}
+
+}
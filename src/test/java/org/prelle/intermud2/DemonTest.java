@@ -1,5 +1,13 @@
 package org.prelle.intermud2;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
 import org.junit.Test;
 import org.prelle.intermud2.Intermud2Demon.I2Message;
 
@@ -8,8 +16,51 @@ public class DemonTest {
 	@Test
 	public void testParseMessage() {
 		String msg = "@@@mudlist_a||15:|NAME:Universes|HOST:tesseract|HOSTADDRESS:108.252.255.105|PORT:3333|PORTUDP:3341|MUDLIB:UniLib||16:|NAME:Limbo|HOST:mud.hu|HOSTADDRESS:91.205.173.162|PORT:9000|PORTUDP:9008|MUDLIB:Limbo Mudlib||17:|NAME:MYSTICISM-MUD|HOST:VM-4-16-ubuntu|HOSTADDRESS:124.223.67.13|PORT:2023|PORTUDP:2027|MUDLIB:诡秘世界@@@";
-		I2Message mess = Intermud2Demon.parseMessage(msg.getBytes(), null, 0);
+		I2Message mess = Intermud2Demon.parseMessage(msg.getBytes(StandardCharsets.UTF_8), null, 0);
+
+		assertEquals("mudlist_a", mess.command());
+		assertEquals(3, mess.parameter().size());
+		Map<String,String> sub = Intermud2Demon.asSubParameter(mess.parameter().get("17"));
+		assertEquals("MYSTICISM-MUD", sub.get("NAME"));
+		assertEquals("2027", sub.get("PORTUDP"));
+		assertEquals("诡秘世界", sub.get("MUDLIB"));
+	}
+
+	@Test
+	public void testParseTerminatedPacket() {
+		byte[] data = new byte[64];
+		byte[] raw = "@@@ping_q||NAME:Test||PORTUDP:4004||EMPTY@@@\0".getBytes(StandardCharsets.US_ASCII);
+		System.arraycopy(raw, 0, data, 0, raw.length);
+		I2Message mess = Intermud2Demon.parseMessage(data, null, 0);
+
+		assertEquals("ping_q", mess.command());
+		assertEquals("Test", mess.getName());
+		assertEquals(4004, mess.getUdpPort());
+		assertTrue(mess.parameter().containsKey("EMPTY"));
+		assertNull(mess.parameter().get("EMPTY"));
+	}
+
+	@Test
+	public void testParseDoubleByteEncoding() {
+		// The second byte of U+541C in Big5 is '|'
+		String name = "吜咽";
+		Charset big5 = Charset.forName("Big5");
+		byte[] data = ("@@@ping_a||NAME:"+name+"||ENCODING:big5||PORTUDP:5555@@@").getBytes(big5);
+		I2Message mess = Intermud2Demon.parseMessage(data, null, 0);
+
+		assertEquals(name, mess.getName());
+		assertEquals("big5", mess.getEncoding());
+		assertEquals(5555, mess.getUdpPort());
+	}
+
+	@Test(expected = MalformedFrameException.class)
+	public void testRejectUnframed() {
+		Intermud2Demon.parseMessage("ping_q||NAME:Test".getBytes(StandardCharsets.US_ASCII), null, 0);
+	}
 
+	@Test(expected = MalformedFrameException.class)
+	public void testRejectEmptyCommand() {
+		Intermud2Demon.parseMessage("@@@||NAME:Test@@@".getBytes(StandardCharsets.US_ASCII), null, 0);
 	}
 
 }
@@ -0,0 +1,128 @@
+package org.prelle.intermud2;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.prelle.intermud2.Intermud2Contact.ContactState;
+
+public class EventBusTest {
+
+	private ContactRegistry registry;
+	private I2EventBus bus;
+	private List<String> events;
+
+	private static InetAddress ip(int last) throws UnknownHostException {
+		return InetAddress.getByAddress(new byte[] {10,0,0,(byte)last});
+	}
+
+	@Before
+	public void setUp() {
+		registry = new ContactRegistry();
+		bus = new I2EventBus(Runnable::run);
+		registry.addListener(bus);
+		events = new ArrayList<>();
+		bus.addListener(new I2EventListener() {
+			public void contactAdded(Intermud2Contact contact) { events.add("added "+contact.getName()); }
+			public void contactChanged(Intermud2Contact contact, Set<Field> changed) { events.add("changed "+changed); }
+			public void stateChanged(Intermud2Contact contact, ContactState from, ContactState to) { events.add(from+"->"+to); }
+			public void contactRemoved(Intermud2Contact contact) { events.add("removed "+contact.getName()); }
+			public void batchFinished() { events.add("end"); }
+		});
+	}
+
+	@Test
+	public void testCoalescing() throws UnknownHostException {
+		Intermud2Contact contact = registry.getOrCreate(ip(1), 4004);
+		registry.update(contact, c -> c.setName("Eden"));
+		registry.update(contact, c -> c.setMudLib("Lima"));
+		bus.flush();
+		assertEquals(List.of("added Eden", "end"), events);
+
+		events.clear();
+		registry.update(contact, c -> c.setName("Eden"));
+		registry.touch(contact);
+		bus.flush();
+		assertEquals(List.of(), events);
+
+		registry.update(contact, c -> c.setDriver("FluffOS"));
+		registry.setState(contact, ContactState.ONLINE);
+		registry.update(contact, c -> c.setMudLib("Nightmare"));
+		bus.flush();
+		assertEquals(List.of("changed [DRIVER, MUDLIB]", "UNKNOWN->ONLINE", "end"), events);
+	}
+
+	@Test
+	public void testStateRevertedAndRemoved() throws UnknownHostException {
+		Intermud2Contact contact = registry.getOrCreate(ip(1), 4004);
+		registry.update(contact, c -> c.setName("Eden"));
+		bus.flush();
+		events.clear();
+
+		registry.setState(contact, ContactState.ONLINE);
+		registry.setState(contact, ContactState.UNKNOWN);
+		bus.flush();
+		assertEquals(List.of(), events);
+
+		Intermud2Contact other = registry.getOrCreate(ip(2), 4004);
+		registry.remove(other);
+		registry.remove(contact);
+		bus.flush();
+		assertEquals(List.of("removed Eden", "end"), events);
+	}
+
+	@Test
+	public void testLegacyListener() throws UnknownHostException {
+		List<String> updates = new ArrayList<>();
+		bus.addListener((I2Listener)contact -> updates.add(contact.getName()+" "+contact.getState()));
+		Intermud2Contact contact = registry.getOrCreate(ip(1), 4004);
+		registry.update(contact, c -> c.setName("Eden"));
+		bus.flush();
+		// Only the state changes
+		registry.setState(contact, ContactState.ONLINE);
+		bus.flush();
+		assertEquals(List.of("Eden UNKNOWN", "Eden ONLINE"), updates);
+	}
+
+	@Test(timeout = 10000)
+	public void testOrderWithSeveralThreads() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			I2EventBus parallel = new I2EventBus(pool);
+			List<String> states = new CopyOnWriteArrayList<>();
+			parallel.addListener(new I2EventListener() {
+				public void stateChanged(Intermud2Contact contact, ContactState from, ContactState to) {
+					if (to==ContactState.ONLINE) {
+						// A slow listener must not let the next batch overtake
+						LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+					}
+					states.add(from+"->"+to);
+				}
+			});
+			registry.addListener(parallel);
+			Intermud2Contact contact = registry.getOrCreate(ip(1), 4004);
+			parallel.flush();
+			registry.setState(contact, ContactState.ONLINE);
+			parallel.flush();
+			registry.setState(contact, ContactState.OFFLINE);
+			parallel.flush();
+			while (states.size()<2)
+				Thread.sleep(10);
+			assertEquals(List.of("UNKNOWN->ONLINE", "ONLINE->OFFLINE"), states);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+}
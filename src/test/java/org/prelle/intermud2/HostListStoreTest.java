@@ -0,0 +1,168 @@
+package org.prelle.intermud2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.prelle.intermud2.Intermud2Contact.ContactState;
+import org.prelle.intermud2.Intermud2Contact.Service;
+
+public class HostListStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static Intermud2Contact contact(int last, String name) throws IOException {
+		Intermud2Contact contact = new Intermud2Contact(InetAddress.getByAddress(new byte[] {10,0,0,(byte)last}), 4004);
+		contact.setName(name);
+		contact.setPort(4000);
+		contact.setMudLib("Tab\there");
+		contact.setState(ContactState.ONLINE);
+		contact.getServices().add(Service.PING);
+		contact.getServices().add(Service.RWHO);
+		return contact;
+	}
+
+	private HostListStore store(Path dir, ContactRegistry registry, int threshold) {
+		I2Config config = I2Config.builder().name("Test").stateDir(dir).journalCompactThreshold(threshold).build();
+		HostListStore store = new HostListStore(registry, config);
+		registry.addListener(store);
+		return store;
+	}
+
+	@Test
+	public void testEncodeDecode() throws IOException {
+		Intermud2Contact contact = contact(1, "Mud");
+		Intermud2Contact read = HostListStore.decode(HostListStore.encode(contact).split("\t", -1));
+		assertEquals(contact.getIpAddress(), read.getIpAddress());
+		assertEquals("Mud", read.getName());
+		assertEquals("Tab\there", read.getMudLib());
+		assertEquals(null, read.getDriver());
+		assertEquals(ContactState.ONLINE, read.getState());
+		assertEquals(contact.getLastContact(), read.getLastContact());
+		assertEquals(contact.getServices(), read.getServices());
+	}
+
+	@Test
+	public void testJournalReplay() throws IOException {
+		Path dir = folder.getRoot().toPath();
+		ContactRegistry registry = new ContactRegistry();
+		HostListStore store = store(dir, registry, 1000);
+		Intermud2Contact one = contact(1, "One");
+		Intermud2Contact two = contact(2, "Two");
+		registry.add(one);
+		registry.add(two);
+		store.flush();
+		assertFalse(store.isDirty());
+		assertTrue(Files.exists(dir.resolve(HostListStore.JOURNAL)));
+
+		registry.remove(one);
+		registry.setState(two, ContactState.OFFLINE);
+		store.flush();
+
+		List<Intermud2Contact> loaded = new ArrayList<>(new HostListStore(new ContactRegistry(), I2Config.builder().name("Test").stateDir(dir).build()).load());
+		assertEquals(1, loaded.size());
+		assertEquals("Two", loaded.get(0).getName());
+		assertEquals(ContactState.OFFLINE, loaded.get(0).getState());
+	}
+
+	@Test
+	public void testFailedAppend() throws IOException {
+		Path dir = folder.getRoot().toPath();
+		Path journal = dir.resolve(HostListStore.JOURNAL);
+		Path moved = dir.resolve("moved");
+		ContactRegistry registry = new ContactRegistry();
+		HostListStore store = store(dir, registry, 1000);
+		Intermud2Contact one = contact(1, "One");
+		registry.add(one);
+		store.flush();
+
+		// A directory in place of the journal makes appending fail
+		Files.move(journal, moved);
+		Files.createDirectory(journal);
+		registry.remove(one);
+		registry.add(contact(2, "Two"));
+		try {
+			store.flush();
+			fail("Appending should fail");
+		} catch (IOException e) {
+		}
+		assertTrue(store.isDirty());
+
+		Files.delete(journal);
+		Files.move(moved, journal);
+		store.flush();
+		assertFalse(store.isDirty());
+		List<Intermud2Contact> loaded = new ArrayList<>(new HostListStore(new ContactRegistry(), I2Config.builder().name("Test").stateDir(dir).build()).load());
+		assertEquals(1, loaded.size());
+		assertEquals("Two", loaded.get(0).getName());
+	}
+
+	@Test
+	public void testCompaction() throws IOException {
+		Path dir = folder.getRoot().toPath();
+		ContactRegistry registry = new ContactRegistry();
+		HostListStore store = store(dir, registry, 2);
+		registry.add(contact(1, "One"));
+		registry.add(contact(2, "Two"));
+		store.flush();
+		assertTrue(Files.exists(dir.resolve(HostListStore.SNAPSHOT)));
+		assertFalse(Files.exists(dir.resolve(HostListStore.JOURNAL)));
+
+		assertEquals(2, new HostListStore(new ContactRegistry(), I2Config.builder().name("Test").stateDir(dir).build()).load().size());
+	}
+
+	@Test
+	public void testCompactOnStop() throws IOException {
+		Path dir = folder.getRoot().toPath();
+		ContactRegistry registry = new ContactRegistry();
+		HostListStore store = store(dir, registry, 1000);
+		registry.add(contact(1, "One"));
+		store.flush();
+		registry.add(contact(2, "Two"));
+		store.stop();
+		assertTrue(Files.exists(dir.resolve(HostListStore.SNAPSHOT)));
+		assertFalse(Files.exists(dir.resolve(HostListStore.JOURNAL)));
+
+		assertEquals(2, new HostListStore(new ContactRegistry(), I2Config.builder().name("Test").stateDir(dir).build()).load().size());
+	}
+
+	@Test
+	public void testBinarySnapshot() throws IOException {
+		Intermud2Contact v4 = contact(1, "One");
+		Intermud2Contact v6 = new Intermud2Contact(InetAddress.getByName("::1"), 65000);
+		v6.setName("Zwei \u00e4\u4e2d");
+		List<Intermud2Contact> read = ContactSnapshot.read(ContactSnapshot.write(List.of(v4, v6)));
+		assertEquals(2, read.size());
+		assertEquals(v4.getIpAddress(), read.get(0).getIpAddress());
+		assertEquals(4000, read.get(0).getPort());
+		assertEquals("Tab\there", read.get(0).getMudLib());
+		assertEquals(ContactState.ONLINE, read.get(0).getState());
+		assertEquals(v4.getServices(), read.get(0).getServices());
+		assertEquals(v6.getIpAddress(), read.get(1).getIpAddress());
+		assertEquals(65000, read.get(1).getIm2Port());
+		assertEquals("Zwei \u00e4\u4e2d", read.get(1).getName());
+		assertEquals(null, read.get(1).getMudGroup());
+		assertEquals(LocalDateTime.MIN, read.get(1).getLastContact());
+	}
+
+	@Test(expected=IOException.class)
+	public void testTruncatedSnapshot() throws IOException {
+		ByteBuffer buf = ContactSnapshot.write(List.of(contact(1, "One")));
+		ContactSnapshot.read(buf.limit(buf.limit()-5));
+	}
+
+}
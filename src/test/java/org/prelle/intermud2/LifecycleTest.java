@@ -0,0 +1,103 @@
+package org.prelle.intermud2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.prelle.intermud2.Intermud2Demon.Stage;
+
+public class LifecycleTest {
+
+	private static I2Config config(int i2Port) throws IOException {
+		Path emptyList = Files.createTempFile("mudlist", ".txt");
+		emptyList.toFile().deleteOnExit();
+		return I2Config.builder()
+				.name("LifecycleTest")
+				.hostname("localhost")
+				.port(i2Port-4)
+				.i2Port(i2Port)
+				.bootmaster("127.0.0.1 "+PeerNetwork.freePort())
+				.mudList(emptyList)
+				.jmx(false)
+				.build();
+	}
+
+	@Test(timeout = 30000)
+	public void testStartAndStop() throws Exception {
+		int port = PeerNetwork.freePort();
+		Intermud2Demon daemon = Intermud2Demon.create(config(port));
+		assertEquals(Stage.CREATED, daemon.getStage());
+		assertEquals(0, daemon.getSendQueueDepth());
+		assertEquals(0, daemon.getSendDropped());
+		CompletableFuture<Intermud2Demon> listening = daemon.whenStage(Stage.LISTENING);
+		assertSame(daemon, daemon.startAsync().get(10, TimeUnit.SECONDS));
+		assertEquals(Stage.READY, daemon.getStage());
+		assertTrue(listening.isDone());
+
+		daemon.stop();
+		assertEquals(Stage.STOPPED, daemon.getStage());
+		assertTrue(daemon.whenStage(Stage.STOPPED).isDone());
+		// The port is free again
+		try (DatagramChannel channel = DatagramChannel.open()) {
+			channel.bind(new InetSocketAddress(port));
+		}
+		assertTrue(daemon.startAsync().isCompletedExceptionally());
+	}
+
+	@Test(timeout = 60000)
+	public void testStopWhileStarting() throws Exception {
+		long before = countThreads();
+		for (int i=0; i<20; i++) {
+			int port = PeerNetwork.freePort();
+			Intermud2Demon daemon = Intermud2Demon.create(config(port));
+			CompletableFuture<Intermud2Demon> ready = daemon.startAsync();
+			daemon.stop();
+			assertEquals(Stage.STOPPED, daemon.getStage());
+			assertTrue(ready.isDone());
+			assertTrue(daemon.whenStage(Stage.READY).isCompletedExceptionally());
+			try (DatagramChannel channel = DatagramChannel.open()) {
+				channel.bind(new InetSocketAddress(port));
+			}
+		}
+		// Threads that have been started are finishing
+		long deadline = System.currentTimeMillis()+10000;
+		while (countThreads()>before && System.currentTimeMillis()<deadline) {
+			Thread.sleep(50);
+		}
+		assertTrue(countThreads()<=before);
+	}
+
+	private static long countThreads() {
+		return Thread.getAllStackTraces().keySet().stream()
+				.filter(t -> t.isAlive() && t.getName().startsWith("Intermud IM2"))
+				.count();
+	}
+
+	@Test(timeout = 30000)
+	public void testPortInUse() throws Exception {
+		try (DatagramChannel channel = DatagramChannel.open()) {
+			channel.bind(new InetSocketAddress(0));
+			int port = ((InetSocketAddress)channel.getLocalAddress()).getPort();
+			try (Intermud2Demon daemon = Intermud2Demon.create(config(port))) {
+				try {
+					daemon.startAsync().get(10, TimeUnit.SECONDS);
+				} catch (ExecutionException e) {
+					assertTrue(e.getCause() instanceof IOException);
+				}
+				assertEquals(Stage.FAILED, daemon.getStage());
+				assertTrue(daemon.whenStage(Stage.READY).isCompletedExceptionally());
+			}
+		}
+	}
+
+}
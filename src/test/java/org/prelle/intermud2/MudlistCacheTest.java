@@ -0,0 +1,60 @@
+package org.prelle.intermud2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+
+import org.junit.Test;
+import org.prelle.intermud2.Intermud2Contact.ContactState;
+import org.prelle.intermud2.Intermud2Demon.I2Message;
+
+public class MudlistCacheTest {
+
+	private static ContactRegistry createRegistry(int count) throws UnknownHostException {
+		ContactRegistry registry = new ContactRegistry();
+		for (int i=0; i<count; i++) {
+			Intermud2Contact contact = new Intermud2Contact(InetAddress.getByAddress(new byte[] {10,0,(byte)(i/256),(byte)i}), 4004);
+			contact.setName("MUD"+i);
+			contact.setState(ContactState.ONLINE);
+			registry.add(contact);
+		}
+		return registry;
+	}
+
+	@Test
+	public void testPacking() throws UnknownHostException {
+		ContactRegistry registry = createRegistry(100);
+		List<byte[]> packets = new MudlistCache(registry, 512).getPackets();
+
+		int entries = 0;
+		for (byte[] packet : packets) {
+			assertTrue(packet.length<512);
+			I2Message mess = Intermud2Demon.parseMessage(packet, null, 0);
+			assertEquals("mudlist_a", mess.command());
+			entries += mess.parameter().size();
+		}
+		assertEquals(100, entries);
+		assertTrue(packets.size()<25);
+	}
+
+	@Test
+	public void testRebuildOnChange() throws UnknownHostException {
+		ContactRegistry registry = createRegistry(10);
+		MudlistCache cache = new MudlistCache(registry, 1024);
+		List<byte[]> first = cache.getPackets();
+		assertSame(first, cache.getPackets());
+
+		Intermud2Contact contact = registry.getByName("MUD3");
+		registry.update(contact, c -> c.setDriver("FluffOS"));
+		assertSame(first, cache.getPackets());
+
+		registry.setState(contact, ContactState.OFFLINE);
+		assertNotSame(first, cache.getPackets());
+	}
+
+}
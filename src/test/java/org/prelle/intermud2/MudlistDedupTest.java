@@ -0,0 +1,45 @@
+package org.prelle.intermud2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+
+import org.junit.Test;
+
+public class MudlistDedupTest {
+
+	private static long fp(String entry) {
+		return MudlistDedup.fingerprint(entry);
+	}
+
+	@Test
+	public void testDedup() {
+		MudlistDedup dedup = new MudlistDedup(2, Duration.ofMinutes(1));
+		assertFalse(dedup.isDuplicate(fp("|NAME:One|HOST:a|")));
+		// Not applied yet
+		assertFalse(dedup.isDuplicate(fp("|NAME:One|HOST:a|")));
+		dedup.remember(fp("|NAME:One|HOST:a|"));
+		assertTrue(dedup.isDuplicate(fp("|NAME:One|HOST:a|")));
+		assertFalse(dedup.isDuplicate(fp("|NAME:One|HOST:b|")));
+		dedup.remember(fp("|NAME:One|HOST:b|"));
+		dedup.remember(fp("|NAME:Two|HOST:a|"));
+		// Least recently seen has been evicted
+		assertEquals(2, dedup.size());
+		assertFalse(dedup.isDuplicate(fp("|NAME:One|HOST:a|")));
+	}
+
+	@Test
+	public void testExpiredAndDisabled() {
+		MudlistDedup expired = new MudlistDedup(10, Duration.ZERO);
+		expired.remember(fp("|NAME:One|"));
+		assertFalse(expired.isDuplicate(fp("|NAME:One|")));
+
+		MudlistDedup disabled = new MudlistDedup(0, Duration.ofMinutes(1));
+		disabled.remember(fp("|NAME:One|"));
+		assertFalse(disabled.isDuplicate(fp("|NAME:One|")));
+		assertEquals(0, disabled.size());
+	}
+
+}
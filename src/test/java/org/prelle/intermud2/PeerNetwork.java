@@ -0,0 +1,389 @@
+package org.prelle.intermud2;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.prelle.intermud2.Intermud2Contact.ContactState;
+import org.prelle.intermud2.Intermud2Demon.I2Message;
+
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Simulated Intermud 2 network on localhost. Every peer has its own UDP
+ * port and answers ping_q, mudlist_q, rwho_q and supported_q. A
+ * bootmaster stand-in knows all peers and hands them out via mudlist_a,
+ * while normal peers only know a few neighbours.
+ * <p>
+ * All peers share one selector thread; delayed answers are sent from a
+ * scheduler thread.
+ */
+class PeerNetwork implements Closeable {
+
+	private final static Logger logger = System.getLogger("intermud2.sim");
+
+	@Builder
+	@Getter
+	static class Options {
+		@Builder.Default
+		private int peers = 100;
+		/** Number of other peers in the mudlist_a answer of a normal peer */
+		@Builder.Default
+		private int neighbours = 20;
+		/** Time before a query is answered */
+		@Builder.Default
+		private Duration delay = Duration.ZERO;
+		/** Probability between 0 and 1 that a query is ignored */
+		private double loss;
+		/** Size of the RWHO text in rwho_a */
+		@Builder.Default
+		private int rwhoSize = 200;
+		/** Maximum size of a mudlist_a packet */
+		@Builder.Default
+		private int mudlistPacketSize = 1024;
+		@Builder.Default
+		private long seed = 4711;
+	}
+
+	class Peer {
+		final String name;
+		final DatagramChannel channel;
+		final int port;
+		final List<Peer> known = new ArrayList<>();
+		final LongAdder queries = new LongAdder();
+
+		//-------------------------------------------------------------------
+		Peer(String name) throws IOException {
+			this.name = name;
+			channel = DatagramChannel.open();
+			channel.bind(new InetSocketAddress(LOCALHOST, 0));
+			channel.configureBlocking(false);
+			port = ((InetSocketAddress)channel.getLocalAddress()).getPort();
+		}
+
+		//-------------------------------------------------------------------
+		void received(I2Message mess, InetSocketAddress from) {
+			queries.increment();
+			received.increment();
+			// Answers go to the port the query asked for
+			InetSocketAddress target = (mess.parameter().get("PORTUDP")!=null)
+					? new InetSocketAddress(from.getAddress(), mess.getUdpPort())
+					: from;
+
+			switch (mess.command()) {
+			case "ping_q"      -> answer(target, pingAnswer());
+			case "mudlist_q"   -> mudlistAnswer(mess.parameter().get("ANSWERID")).forEach(p -> answer(target, p));
+			case "rwho_q"      -> answer(target, rwhoAnswer());
+			case "supported_q" -> answer(target, header("supported_a")+"||CMD:"+mess.parameter().get("CMD")+"||SUPPORTED:1@@@");
+			default -> {}
+			}
+		}
+
+		//-------------------------------------------------------------------
+		private String header(String command) {
+			return "@@@"+command+"||NAME:"+name+"||PORTUDP:"+port;
+		}
+
+		//-------------------------------------------------------------------
+		String pingAnswer() {
+			return header("ping_a")+"||HOST:localhost||HOSTADDRESS:127.0.0.1||PORT:"+(port-4)
+					+"||MUDLIB:SimLib||DRIVER:Simulator||VERSION:1.0||USERS:0@@@";
+		}
+
+		//-------------------------------------------------------------------
+		String rwhoAnswer() {
+			StringBuilder text = new StringBuilder(options.rwhoSize+16);
+			text.append("%^B_CYAN%^").append(name).append("%^RESET%^\n");
+			while (text.length()<options.rwhoSize)
+				text.append("Player").append(text.length()).append('\n');
+			return header("rwho_a")+"||RWHO:"+text+"@@@";
+		}
+
+		//-------------------------------------------------------------------
+		List<String> mudlistAnswer(String answerId) {
+			String head = "@@@mudlist_a"+((answerId!=null)?("||ANSWERID:"+answerId):"");
+			List<String> packets = new ArrayList<>();
+			StringBuilder packet = new StringBuilder(head);
+			int index = 0;
+			for (Peer peer : known) {
+				String entry = "||"+(index++)+":|NAME:"+peer.name+"|HOST:localhost|HOSTADDRESS:127.0.0.1|PORT:"
+						+(peer.port-4)+"|PORTUDP:"+peer.port;
+				// Room for the closing @@@ and the terminator
+				if (packet.length()+entry.length()+4>options.mudlistPacketSize && packet.length()>head.length()) {
+					packets.add(packet.append("@@@").toString());
+					packet = new StringBuilder(head);
+				}
+				packet.append(entry);
+			}
+			packets.add(packet.append("@@@").toString());
+			return packets;
+		}
+
+		//-------------------------------------------------------------------
+		private void answer(InetSocketAddress target, String text) {
+			if (options.loss>0 && random.nextDouble()<options.loss) {
+				lost.increment();
+				return;
+			}
+			byte[] data = (text+"\0").getBytes(StandardCharsets.UTF_8);
+			if (options.delay.isZero()) {
+				send(target, data);
+			} else {
+				delayer.schedule( () -> send(target, data), options.delay.toNanos(), TimeUnit.NANOSECONDS);
+			}
+		}
+
+		//-------------------------------------------------------------------
+		private void send(InetSocketAddress target, byte[] data) {
+			try {
+				channel.send(ByteBuffer.wrap(data), target);
+				sent.increment();
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Peer "+name+" failed sending: "+e);
+			}
+		}
+	}
+
+	private final static InetAddress LOCALHOST = InetAddress.getLoopbackAddress();
+
+	private final Options options;
+	private final Random random;
+	private final List<Peer> peers = new ArrayList<>();
+	/** Stopped when the network is closed */
+	private final List<Intermud2Demon> daemons = new ArrayList<>();
+	@Getter
+	private final Peer bootmaster;
+	private final Selector selector;
+	private final ScheduledExecutorService delayer;
+	private final Thread thread;
+	private volatile boolean running = true;
+
+	private final LongAdder received = new LongAdder();
+	private final LongAdder sent = new LongAdder();
+	private final LongAdder lost = new LongAdder();
+
+	//-------------------------------------------------------------------
+	PeerNetwork(Options options) throws IOException {
+		this.options = options;
+		this.random  = new Random(options.seed);
+		selector = Selector.open();
+		delayer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "Simulated peers delay");
+			t.setDaemon(true);
+			return t;
+		});
+
+		bootmaster = new Peer("SimBootmaster");
+		bootmaster.channel.register(selector, SelectionKey.OP_READ, bootmaster);
+		for (int i=0; i<options.peers; i++) {
+			Peer peer = new Peer("SimPeer-"+i);
+			peer.channel.register(selector, SelectionKey.OP_READ, peer);
+			peers.add(peer);
+		}
+		bootmaster.known.addAll(peers);
+		int neighbours = Math.min(options.neighbours, peers.size()-1);
+		for (Peer peer : peers) {
+			while (peer.known.size()<neighbours) {
+				Peer other = peers.get(random.nextInt(peers.size()));
+				if (other!=peer && !peer.known.contains(other))
+					peer.known.add(other);
+			}
+		}
+
+		thread = new Thread(this::run, "Simulated peers");
+		thread.setDaemon(true);
+		thread.start();
+		logger.log(Level.INFO, "Started {0} simulated peers, bootmaster on port {1}", peers.size(), bootmaster.port);
+	}
+
+	//-------------------------------------------------------------------
+	private void run() {
+		ByteBuffer buffer = ByteBuffer.allocate(8192);
+		byte[] data = new byte[8192];
+		while (running) {
+			try {
+				selector.select(100);
+				for (SelectionKey key : selector.selectedKeys()) {
+					Peer peer = (Peer)key.attachment();
+					InetSocketAddress from;
+					while (true) {
+						buffer.clear();
+						from = (InetSocketAddress)peer.channel.receive(buffer);
+						if (from==null) break;
+						buffer.flip();
+						int length = buffer.remaining();
+						buffer.get(data, 0, length);
+						try {
+							peer.received(Intermud2Demon.parseMessage(data, length, from.getAddress(), from.getPort()), from);
+						} catch (MalformedFrameException e) {
+							logger.log(Level.WARNING, "Peer "+peer.name+" received invalid packet: "+e.getMessage());
+						}
+					}
+				}
+				selector.selectedKeys().clear();
+			} catch (IOException e) {
+				if (running)
+					logger.log(Level.ERROR, "Error in simulated network", e);
+			}
+		}
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @return Value for I2Config.bootmaster
+	 */
+	String getBootmasterAddress() {
+		return LOCALHOST.getHostAddress()+" "+bootmaster.port;
+	}
+
+	//-------------------------------------------------------------------
+	List<Peer> getPeers() {
+		return peers;
+	}
+
+	//-------------------------------------------------------------------
+	/** @return Queries received by all peers */
+	long getReceived() {
+		return received.sum();
+	}
+
+	//-------------------------------------------------------------------
+	/** @return Answers sent by all peers */
+	long getSent() {
+		return sent.sum();
+	}
+
+	//-------------------------------------------------------------------
+	/** @return Answers not sent because of simulated loss */
+	long getLost() {
+		return lost.sum();
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Start a daemon that is stopped when the network is closed
+	 */
+	Intermud2Demon startDaemon(I2Config config) throws IOException {
+		Intermud2Demon daemon = new Intermud2Demon(config);
+		daemons.add(daemon);
+		return daemon;
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Configuration for a daemon that uses this network instead of the
+	 * real one. The regular host list is replaced by an empty file.
+	 */
+	I2Config.I2ConfigBuilder daemonConfig(int i2Port) throws IOException {
+		Path emptyList = Files.createTempFile("mudlist", ".txt");
+		emptyList.toFile().deleteOnExit();
+		return I2Config.builder()
+				.name("SimDaemon")
+				.port(i2Port-4)
+				.i2Port(i2Port)
+				.bootmaster(getBootmasterAddress())
+				.mudList(emptyList)
+				.jmx(false)
+				.pingInterval(Duration.ofSeconds(2))
+				.sendRate(10000)
+				.sendBurst(1000)
+				.sendQueueSize(65536)
+				// All peers share the loopback address
+				.peerReceiveRate(1_000_000)
+				.peerReceiveBurst(100_000);
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @return A UDP port that is currently unused
+	 */
+	static int freePort() throws IOException {
+		try (DatagramChannel channel = DatagramChannel.open()) {
+			channel.bind(new InetSocketAddress(0));
+			return ((InetSocketAddress)channel.getLocalAddress()).getPort();
+		}
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * @return Number of simulated peers the daemon sees as online
+	 */
+	int countOnline(Intermud2Demon daemon) {
+		int count = 0;
+		for (Intermud2Contact contact : daemon.getKnownContacts()) {
+			if (contact.getName()!=null && contact.getName().startsWith("SimPeer-")
+					&& (contact.getState()==ContactState.ONLINE || contact.getState()==ContactState.SCANNED))
+				count++;
+		}
+		return count;
+	}
+
+	//-------------------------------------------------------------------
+	/**
+	 * Soak test: start a daemon against the given number of peers and
+	 * report convergence time, packet rates and memory use.
+	 */
+	public static void main(String[] args) throws Exception {
+		int count = (args.length>0)?Integer.parseInt(args[0]):5000;
+		Options.OptionsBuilder options = Options.builder().peers(count);
+		if (args.length>1) options.delay(Duration.ofMillis(Long.parseLong(args[1])));
+		if (args.length>2) options.loss(Double.parseDouble(args[2]));
+		try (PeerNetwork network = new PeerNetwork(options.build())) {
+			long start = System.nanoTime();
+			Intermud2Demon daemon = network.startDaemon(network.daemonConfig(freePort()).build());
+			int online = 0;
+			while (online<count) {
+				Thread.sleep(1000);
+				online = network.countOnline(daemon);
+				Runtime rt = Runtime.getRuntime();
+				System.out.printf("%6ds  online %d/%d  peers rcvd %d sent %d lost %d  daemon rcvd %d sent %d dropped %d  heap %d MB%n",
+						(System.nanoTime()-start)/1_000_000_000L, online, count,
+						network.getReceived(), network.getSent(), network.getLost(),
+						daemon.getStatistics().getPacketsReceived(), daemon.getStatistics().getPacketsSent(),
+						daemon.getStatistics().getPacketsDropped(),
+						(rt.totalMemory()-rt.freeMemory())/(1024*1024));
+			}
+			double secs = (System.nanoTime()-start)/1e9;
+			System.out.printf("Converged after %.1f s - %.0f packets/s received by the daemon%n",
+					secs, daemon.getStatistics().getPacketsReceived()/secs);
+		}
+	}
+
+	//-------------------------------------------------------------------
+	@Override
+	public void close() throws IOException {
+		daemons.forEach(Intermud2Demon::stop);
+		running = false;
+		delayer.shutdownNow();
+		selector.wakeup();
+		try {
+			thread.join(1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		selector.close();
+		bootmaster.channel.close();
+		for (Peer peer : peers)
+			peer.channel.close();
+	}
+
+}
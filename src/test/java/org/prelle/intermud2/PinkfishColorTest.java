@@ -0,0 +1,45 @@
+package org.prelle.intermud2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+import org.prelle.intermud2.PinkfishColor.Target;
+
+public class PinkfishColorTest {
+
+	@Test
+	public void testPrefixCodes() {
+		assertEquals("\u001b[91mred\u001b[31mdark\u001b[0m", PinkfishColor.decodetoANSI("%^B_RED%^red%^RED%^dark%^RESET%^"));
+		assertEquals("\u001b[7minverse", PinkfishColor.decodetoANSI("%^REVERSE%^inverse"));
+		// Missing closing delimiter at the end
+		assertEquals("text\u001b[0m", PinkfishColor.decodetoANSI("text%^RESET"));
+	}
+
+	@Test
+	public void testUnknownCodes() {
+		assertEquals("aENDTERMb", PinkfishColor.translate("a%^ENDTERM%^b", Target.PLAIN));
+		// Player text that looks like a code name
+		assertEquals("WARNING and AFK", PinkfishColor.translate("%^RED%^WARNING%^RESET%^ and %^BOLD%^AFK%^RESET%^", Target.PLAIN));
+		assertEquals("100 percent", PinkfishColor.translate("100%^ percent", Target.PLAIN));
+		assertEquals("REDish", PinkfishColor.translate("%^REDish", Target.PLAIN));
+	}
+
+	@Test
+	public void testTargets() {
+		String text = "%^GREEN%^<Taranion>%^RESET%^ & %^BOLD%^Lerida";
+		assertEquals("<Taranion> & Lerida", PinkfishColor.translate(text, Target.PLAIN));
+		assertEquals("\u001b[38;5;34m<Taranion>\u001b[0m & \u001b[1mLerida", PinkfishColor.translate(text, Target.ANSI256));
+		assertEquals("\u001b[38;2;0;175;0m<Taranion>\u001b[0m & \u001b[1mLerida", PinkfishColor.translate(text, Target.TRUECOLOR));
+		assertEquals("<span style=\"color:#00af00\">&lt;Taranion&gt;</span> &amp; <span style=\"font-weight:bold\">Lerida</span>",
+				PinkfishColor.translate(text, Target.HTML));
+	}
+
+	@Test
+	public void testCache() {
+		String text = "%^CYAN%^cached";
+		assertSame(PinkfishColor.translate(text, Target.ANSI16), PinkfishColor.translate(text, Target.ANSI16));
+		assertEquals("\u001b[36mcached", PinkfishColor.translate(new StringBuilder(text), Target.ANSI16, new StringBuilder()).toString());
+	}
+
+}
@@ -0,0 +1,93 @@
+package org.prelle.intermud2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class RWhoCacheTest {
+
+	private final static Intermud2Contact MUD = new Intermud2Contact(InetAddress.getLoopbackAddress(), 4000);
+
+	private static class TestClock extends Clock {
+		Instant now = Instant.parse("2024-01-01T00:00:00Z");
+		@Override
+		public ZoneId getZone() { return ZoneOffset.UTC; }
+		@Override
+		public Clock withZone(ZoneId zone) { return this; }
+		@Override
+		public Instant instant() { return now; }
+	}
+
+	//-------------------------------------------------------------------
+	@Test
+	public void testCoalescingAndTTL() throws Exception {
+		TestClock clock = new TestClock();
+		RWhoCache cache = new RWhoCache(Duration.ofMinutes(1), clock);
+		AtomicInteger sent = new AtomicInteger();
+		CompletableFuture<String> query = new CompletableFuture<>();
+
+		CompletableFuture<RWhoAnswer> first  = cache.request(MUD, c -> { sent.incrementAndGet(); return query; });
+		CompletableFuture<RWhoAnswer> second = cache.request(MUD, c -> { sent.incrementAndGet(); return query; });
+		assertEquals(1, sent.get());
+		// Cancelling one caller must not affect the other
+		first.cancel(false);
+		query.complete("%^RED%^Alice%^RESET%^\nBob");
+		RWhoAnswer answer = second.get();
+		assertEquals(List.of("Alice", "Bob"), answer.getLines());
+		clock.now = clock.now.plusSeconds(10);
+		assertEquals(Duration.ofSeconds(10), answer.getAge());
+
+		// Answered from the cache until the TTL passed
+		assertSame(answer, cache.request(MUD, c -> { sent.incrementAndGet(); return new CompletableFuture<>(); }).getNow(null));
+		assertEquals(1, sent.get());
+		clock.now = clock.now.plusSeconds(61);
+		assertNull(cache.get(MUD));
+		assertFalse(cache.request(MUD, c -> { sent.incrementAndGet(); return new CompletableFuture<>(); }).isDone());
+		assertEquals(2, sent.get());
+		cache.expire();
+		assertEquals(0, cache.size());
+	}
+
+	//-------------------------------------------------------------------
+	@Test
+	public void testStoredOnce() throws Exception {
+		RWhoCache cache = new RWhoCache(Duration.ofMinutes(1), new TestClock());
+		CompletableFuture<String> query = new CompletableFuture<>();
+		CompletableFuture<RWhoAnswer> future = cache.request(MUD, c -> query);
+		// The answer handler runs before the query completes
+		RWhoAnswer stored = cache.answered(MUD, "Alice");
+		query.complete("Alice");
+		assertSame(stored, future.get());
+		assertSame(stored, cache.get(MUD));
+	}
+
+	//-------------------------------------------------------------------
+	@Test
+	public void testFailureNotCached() throws Exception {
+		RWhoCache cache = new RWhoCache(Duration.ofMinutes(1), new TestClock());
+		CompletableFuture<RWhoAnswer> failed = cache.request(MUD, c -> CompletableFuture.failedFuture(new IllegalStateException()));
+		assertTrue(failed.isCompletedExceptionally());
+		assertNull(cache.get(MUD));
+
+		// Unrequested answers are cached as well
+		RWhoAnswer answer = cache.answered(MUD, "Carol");
+		assertSame(answer, cache.request(MUD, c -> new CompletableFuture<>()).getNow(null));
+		cache.contactRemoved(MUD);
+		assertNull(cache.get(MUD));
+	}
+
+}
@@ -0,0 +1,82 @@
+package org.prelle.intermud2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+import org.junit.Test;
+import org.prelle.intermud2.Intermud2Demon.I2Message;
+
+public class ReassemblerTest {
+
+	private final static InetSocketAddress PEER  = new InetSocketAddress("127.0.0.1", 4004);
+	private final static InetSocketAddress OTHER = new InetSocketAddress("127.0.0.1", 5004);
+
+	private static byte[] add(I2Reassembler reassembler, InetSocketAddress sender, String part) {
+		byte[] data = part.getBytes(StandardCharsets.UTF_8);
+		return reassembler.add(sender, data, data.length);
+	}
+
+	private static String str(byte[] data) {
+		return new String(data, StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void testJoin() {
+		I2Reassembler reassembler = new I2Reassembler(1024, 4096, Duration.ofSeconds(10));
+		assertNull(add(reassembler, PEER, "@@@rwho_a||ANSWERID:7||RWHO:Alice\n"));
+		assertNull(add(reassembler, OTHER, "@@@rwho_a||ANSWERID:9||RWHO:Carol"));
+		assertNull(add(reassembler, PEER, "Bob\n"));
+		// Complete frames pass, even while others are incomplete
+		assertEquals("@@@ping_a||NAME:x@@@", str(add(reassembler, PEER, "@@@ping_a||NAME:x@@@")));
+		assertTrue(reassembler.hasPartial(PEER));
+		byte[] joined = add(reassembler, PEER, "Eve@@@\0");
+		assertTrue(reassembler.getBufferedBytes()>0);
+		assertFalse(reassembler.hasPartial(PEER));
+		assertTrue(reassembler.hasPartial(OTHER));
+		I2Message mess = Intermud2Demon.parseMessage(joined, PEER.getAddress(), PEER.getPort());
+		assertEquals("Alice\nBob\nEve", mess.parameter().get("RWHO"));
+		assertEquals("7", mess.parameter().get("ANSWERID"));
+
+		assertEquals("@@@rwho_a||ANSWERID:9||RWHO:Carol Dave@@@", str(add(reassembler, OTHER, " Dave@@@")));
+		assertTrue(reassembler.isEmpty());
+		assertEquals(0, reassembler.getBufferedBytes());
+	}
+
+	@Test
+	public void testContinuationWithoutStart() {
+		I2Reassembler reassembler = new I2Reassembler(1024, 4096, Duration.ofSeconds(10));
+		assertNull(add(reassembler, PEER, "Bob@@@"));
+		assertTrue(reassembler.isEmpty());
+	}
+
+	@Test
+	public void testLimits() {
+		I2Reassembler reassembler = new I2Reassembler(40, 50, Duration.ofSeconds(10));
+		// Message too large
+		assertNull(add(reassembler, PEER, "@@@rwho_a||RWHO:0123456789"));
+		assertNull(add(reassembler, PEER, "01234567890123456789"));
+		assertTrue(reassembler.isEmpty());
+
+		// Memory exhausted - oldest is dropped
+		assertNull(add(reassembler, PEER, "@@@rwho_a||RWHO:0123456789"));
+		assertNull(add(reassembler, OTHER, "@@@rwho_a||RWHO:0123456789"));
+		assertNull(add(reassembler, PEER, "@@@"));
+		assertEquals("@@@rwho_a||RWHO:0123456789x@@@", str(add(reassembler, OTHER, "x@@@")));
+	}
+
+	@Test
+	public void testTimeout() {
+		I2Reassembler reassembler = new I2Reassembler(1024, 4096, Duration.ZERO);
+		assertNull(add(reassembler, PEER, "@@@rwho_a||RWHO:Alice"));
+		assertEquals(1, reassembler.expire());
+		assertNull(add(reassembler, PEER, "Bob@@@"));
+		assertTrue(reassembler.isEmpty());
+	}
+
+}
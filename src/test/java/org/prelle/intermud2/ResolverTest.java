@@ -0,0 +1,37 @@
+package org.prelle.intermud2;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Test;
+
+public class ResolverTest {
+
+	@Test
+	public void testLiterals() {
+		assertArrayEquals(new byte[] {(byte)210,59,(byte)236,38}, I2Resolver.parseLiteral("210.59.236.38").getAddress());
+		assertNotNull(I2Resolver.parseLiteral("::1"));
+		assertNotNull(I2Resolver.parseLiteral("::ffff:10.0.0.1"));
+		assertNull(I2Resolver.parseLiteral("mud.hu:4000"));
+		assertNull(I2Resolver.parseLiteral("fe80::1%eth0"));
+		assertNull(I2Resolver.parseLiteral("1:2"));
+		assertNull(I2Resolver.parseLiteral("mud.hu"));
+		assertNull(I2Resolver.parseLiteral("1.2.3"));
+		assertNull(I2Resolver.parseLiteral("1.2.3.256"));
+		assertNull(I2Resolver.parseLiteral("1..2.3"));
+		assertNull(I2Resolver.parseLiteral(null));
+	}
+
+	@Test
+	public void testLiteralNeedsNoLookup() {
+		I2Resolver resolver = new I2Resolver(I2Config.builder().name("Test").build());
+		CompletableFuture<?> future = resolver.resolve("127.0.0.1");
+		assertTrue(future.isDone());
+		resolver.stop();
+	}
+
+}
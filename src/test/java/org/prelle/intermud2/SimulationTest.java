@@ -0,0 +1,103 @@
+package org.prelle.intermud2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.prelle.intermud2.Intermud2Contact.Service;
+
+public class SimulationTest {
+
+	@Test(timeout = 60000)
+	public void testConvergence() throws Exception {
+		int count = 50;
+		try (PeerNetwork network = new PeerNetwork(PeerNetwork.Options.builder().peers(count).build())) {
+			Intermud2Demon daemon = network.startDaemon(network.daemonConfig(PeerNetwork.freePort()).build());
+			while (network.countOnline(daemon)<count) {
+				Thread.sleep(200);
+			}
+			assertEquals(count, network.countOnline(daemon));
+			assertTrue(daemon.getStatistics().getPacketsReceived()>count);
+			assertTrue(daemon.getStatistics().getMudlistDuplicates()>0);
+			Intermud2Contact bootmaster = daemon.getKnownContacts().stream()
+					.filter(c -> "SimBootmaster".equals(c.getName())).findFirst().orElseThrow();
+			assertTrue(bootmaster.getServices().contains(Service.PING));
+		}
+	}
+
+	@Test(timeout = 60000)
+	public void testAsyncQueries() throws Exception {
+		try (PeerNetwork network = new PeerNetwork(PeerNetwork.Options.builder().peers(5).build())) {
+			Intermud2Demon daemon = network.startDaemon(network.daemonConfig(PeerNetwork.freePort()).build());
+			while (network.countOnline(daemon)<5) {
+				Thread.sleep(200);
+			}
+			Intermud2Contact peer = daemon.getKnownContacts().stream()
+					.filter(c -> c.getName()!=null && !"SimBootmaster".equals(c.getName())).findFirst().orElseThrow();
+			assertSame(peer, daemon.pingAsync(peer).get(10, TimeUnit.SECONDS));
+			assertTrue(daemon.supportedAsync(peer, "rwho_q").get(10, TimeUnit.SECONDS));
+			CompletableFuture<RWhoAnswer> who1 = daemon.rwhoAsync(peer);
+			CompletableFuture<RWhoAnswer> who2 = daemon.rwhoAsync(peer);
+			RWhoAnswer who = who1.get(10, TimeUnit.SECONDS);
+			assertSame(who, who2.get(10, TimeUnit.SECONDS));
+			assertFalse(who.getLines().isEmpty());
+			// Answered from the cache
+			assertSame(who, daemon.rwhoAsync(peer).getNow(null));
+			assertSame(who, daemon.getCachedRWho(peer).orElseThrow());
+			assertFalse(daemon.mudlistAsync(peer).get(10, TimeUnit.SECONDS).isEmpty());
+		}
+	}
+
+	@Test(timeout = 60000)
+	public void testTwoDaemonsWithSeveralReceivers() throws Exception {
+		int count = 30;
+		try (PeerNetwork network = new PeerNetwork(PeerNetwork.Options.builder().peers(count).build())) {
+			// Each daemon has sockets of its own
+			Intermud2Demon first  = network.startDaemon(network.daemonConfig(PeerNetwork.freePort()).receiveThreads(4).build());
+			Intermud2Demon second = network.startDaemon(network.daemonConfig(PeerNetwork.freePort()).build());
+			while (network.countOnline(first)<count || network.countOnline(second)<count) {
+				Thread.sleep(200);
+			}
+			assertEquals(count, network.countOnline(first));
+			assertEquals(count, network.countOnline(second));
+		}
+	}
+
+	@Test(timeout = 60000)
+	public void testHostedIdentities() throws Exception {
+		int count = 10;
+		try (PeerNetwork network = new PeerNetwork(PeerNetwork.Options.builder().peers(count).build());
+				DatagramChannel client = DatagramChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+			int secondPort = PeerNetwork.freePort();
+			I2Identity second = I2Identity.builder().name("SimSecond").hostname("localhost").port(secondPort-4).i2Port(secondPort).build();
+			Intermud2Demon daemon = network.startDaemon(network.daemonConfig(PeerNetwork.freePort()).identities(List.of(second)).build());
+			assertEquals(List.of("SimDaemon", "SimSecond"), daemon.getIdentities().stream().map(I2Identity::getName).toList());
+			while (network.countOnline(daemon)<count) {
+				Thread.sleep(200);
+			}
+
+			// The second identity answers on its own port
+			int clientPort = ((InetSocketAddress)client.getLocalAddress()).getPort();
+			client.send(ByteBuffer.wrap(("@@@ping_q||NAME:Client||PORTUDP:"+clientPort+"@@@").getBytes(StandardCharsets.US_ASCII)),
+					new InetSocketAddress(InetAddress.getLoopbackAddress(), secondPort));
+			ByteBuffer buf = ByteBuffer.allocate(4096);
+			InetSocketAddress from = (InetSocketAddress)client.receive(buf);
+			buf.flip();
+			assertEquals(secondPort, from.getPort());
+			String answer = StandardCharsets.US_ASCII.decode(buf).toString();
+			assertTrue(answer, answer.startsWith("@@@ping_a||NAME:SimSecond||"));
+		}
+	}
+
+}
@@ -0,0 +1,59 @@
+package org.prelle.intermud2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class StatisticsTest {
+
+	@Test
+	public void testCommandOfPacket() {
+		byte[] ping = "@@@ping_q||NAME:Test@@@".getBytes(StandardCharsets.US_ASCII);
+		assertEquals(I2Command.PING_Q, I2Command.of(ping, ping.length));
+		byte[] startup = "@@@startup||NAME:Test@@@".getBytes(StandardCharsets.US_ASCII);
+		assertEquals(I2Command.STARTUP, I2Command.of(startup, startup.length));
+		byte[] unknown = "@@@ping_qx||NAME:Test@@@".getBytes(StandardCharsets.US_ASCII);
+		assertEquals(I2Command.OTHER, I2Command.of(unknown, unknown.length));
+		assertEquals(I2Command.MUDLIST_A, I2Command.of("mudlist_a"));
+		assertEquals(I2Command.OTHER, I2Command.of("foo"));
+	}
+
+	@Test
+	public void testHistogram() {
+		LatencyHistogram histo = new LatencyHistogram();
+		assertEquals(0, histo.getPercentile(50));
+		for (int i=0; i<99; i++)
+			histo.record(1000);
+		histo.record(1_000_000);
+		assertEquals(100, histo.getCount());
+		// 1000 is in the bucket [512,1024)
+		assertEquals(1023, histo.getPercentile(50));
+		assertEquals(1023, histo.getPercentile(99));
+		assertTrue(histo.getPercentile(100)>=1_000_000);
+		// The real maximum, not the bucket bound
+		assertEquals(1_000_000, histo.getMax());
+		assertEquals(1.0, histo.getSummary().getMaxMillis(), 0.0);
+	}
+
+	@Test
+	public void testCounters() {
+		ContactRegistry registry = new ContactRegistry();
+		I2Statistics stats = new I2Statistics(registry, () -> 7, () -> 3, () -> 2);
+		stats.packetReceived(I2Command.PING_A);
+		stats.packetReceived(I2Command.PING_A);
+		stats.packetDropped(I2Command.OTHER);
+		stats.handlerTime(I2Command.PING_A, 2_000_000);
+		assertEquals(2, stats.getPacketsReceived());
+		assertEquals(Long.valueOf(2), stats.getPacketsReceivedByCommand().get("PING_A"));
+		assertEquals(1, stats.getPacketsDropped());
+		assertEquals(1, stats.getHandlerTimes().get("PING_A").getCount());
+		assertEquals(Integer.valueOf(0), stats.getContactsByState().get("ONLINE"));
+		assertEquals(7, stats.getSendQueueDepth());
+		assertEquals(3, stats.getDispatchQueueDepth());
+		assertEquals(2, stats.getDispatchDropped());
+	}
+
+}